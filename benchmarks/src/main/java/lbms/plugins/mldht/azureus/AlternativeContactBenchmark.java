@@ -0,0 +1,106 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.biglybt.core.dht.transport.DHTTransportAlternativeContact;
+import com.biglybt.core.dht.transport.DHTTransportAlternativeNetwork;
+
+/**
+ * {@link AlternativeContactHandler} with DHT threads reporting live nodes while
+ * the core DHT asks for contacts.
+ */
+@State(Scope.Group)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlternativeContactBenchmark {
+
+	private static final int			ADDRESSES	= 1024;
+
+	private AlternativeContactHandler	handler;
+	private DHTTransportAlternativeNetwork	ipv4;
+	private InetSocketAddress[]			addresses;
+	private final AtomicInteger			next		= new AtomicInteger();
+
+	@Setup(Level.Trial)
+	public void setup () throws UnknownHostException, ReflectiveOperationException {
+		handler = new AlternativeContactHandler();
+		Field f = AlternativeContactHandler.class.getDeclaredField("ipv4_net");
+		f.setAccessible(true);
+		ipv4 = (DHTTransportAlternativeNetwork) f.get(handler);
+
+		addresses = new InetSocketAddress[ADDRESSES];
+		for (int i = 0; i < ADDRESSES; i++) {
+			addresses[i] = new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, (byte) (i >> 8), (byte) i }),
+					6881 + i);
+		}
+		for (int i = 0; i < 64; i++) {
+			handler.nodeAlive(addresses[i]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		handler.destroy();
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(3)
+	public void nodeAlive () {
+		handler.nodeAlive(addresses[next.getAndIncrement() & (ADDRESSES - 1)]);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(1)
+	public List<DHTTransportAlternativeContact> getContacts () {
+		return ipv4.getContacts(16);
+	}
+
+	@Benchmark
+	public void nodeAliveUncontended () {
+		handler.nodeAlive(addresses[next.getAndIncrement() & (ADDRESSES - 1)]);
+	}
+
+	@Benchmark
+	public List<DHTTransportAlternativeContact> getContactsUncontended () {
+		return ipv4.getContacts(16);
+	}
+}
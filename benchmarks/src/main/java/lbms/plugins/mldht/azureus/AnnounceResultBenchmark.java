@@ -0,0 +1,78 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import lbms.plugins.mldht.kad.PeerAddressDBItem;
+
+import com.biglybt.pif.download.Download;
+import com.biglybt.pif.download.DownloadAnnounceResultPeer;
+
+/**
+ * Conversion of lookup results into announce result peers, as done for every
+ * interim and final announce result.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnounceResultBenchmark {
+
+	@Param({ "10", "200", "1000" })
+	int							peers;
+
+	@Param({ "4", "6" })
+	int							family;
+
+	private Download			download;
+	private List<PeerAddressDBItem>	items;
+
+	@Setup
+	public void setup () throws UnknownHostException {
+		Random rnd = new Random(42);
+		download = Stubs.download(Download.ST_DOWNLOADING, false, false, rnd);
+		items = new ArrayList<>(peers);
+		for (int i = 0; i < peers; i++) {
+			byte[] addr = new byte[family == 4 ? 4 : 16];
+			rnd.nextBytes(addr);
+			items.add(PeerAddressDBItem.createFromAddress(InetAddress.getByAddress(addr), 1024 + rnd.nextInt(60000),
+					rnd.nextBoolean()));
+		}
+	}
+
+	@Benchmark
+	public DownloadAnnounceResultPeer[] getPeers () {
+		return new DHTAnnounceResult(download, items, 0).getPeers();
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.function.Function;
+
+import lbms.plugins.mldht.azureus.SyntheticDownloadManager.SyntheticDownload;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * Scale test of the Tracker's core integration (listener registration,
+ * checkDownload and the announce/scrape result feedback) against a
+ * {@link SyntheticDownloadManager}, without any DHT.
+ *
+ * <pre>
+ * java -cp benchmarks.jar lbms.plugins.mldht.azureus.DownloadManagerLoadTest
+ *     [-downloads 100000] [-threads 8] [-events 1000000]
+ *     [-mix downloading=0.2,seeding=0.6,queued=0.1,stopped=0.1,private=0.02,metadata=0.01]
+ * </pre>
+ */
+public class DownloadManagerLoadTest {
+
+	public static void main (String[] args) throws Exception {
+		int count = 100000;
+		int threads = 8;
+		int events = 1000000;
+		SyntheticDownloadManager.Mix mix = new SyntheticDownloadManager.Mix();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-downloads":
+				count = Integer.parseInt(args[++i]);
+				break;
+			case "-threads":
+				threads = Integer.parseInt(args[++i]);
+				break;
+			case "-events":
+				events = Integer.parseInt(args[++i]);
+				break;
+			case "-mix":
+				mix = SyntheticDownloadManager.Mix.parse(args[++i]);
+				break;
+			default:
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+
+		DHT.setLogLevel(LogLevel.Fatal);
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		System.out.println("fabricating " + count + " downloads (" + mix + ")");
+		SyntheticDownloadManager dm = new SyntheticDownloadManager(count, mix, 42);
+		List<SyntheticDownload> downloads = dm.getDownloads();
+
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("getDownloadManager", a -> dm.getDownloadManager());
+		answers.put("getTorrentManager", a -> dm.getTorrentManager());
+		MlDHTPlugin plugin = Stubs.plugin(answers);
+		plugin.executor = new ScheduledThreadPoolExecutor(1);
+		Tracker tracker = new Tracker(plugin);
+
+		long heapBefore = usedHeap(memory);
+
+		// start() registers the download manager listener, which is told about every existing download
+		long t0 = System.nanoTime();
+		tracker.start();
+		long registration = System.nanoTime() - t0;
+		Thread.sleep(1000);
+
+		int tracked = tracker.getTrackedTorrentCount();
+		long heapAfter = usedHeap(memory);
+		System.out.println(String.format("listener registration: %dms for %d downloads (%.1fus each), %d tracked",
+				registration / 1000000, count, registration / 1000.0 / count, tracked));
+		if (tracked > 0) {
+			System.out.println(String.format("heap per tracked torrent: %d bytes (incl. listener registrations)",
+					(heapAfter - heapBefore) / tracked));
+		}
+
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean.isThreadContentionMonitoringSupported()) {
+			threadBean.setThreadContentionMonitoringEnabled(true);
+		}
+
+		// stateChanged without an actual change: pure checkDownload cost
+		run("checkDownload", threads, events, threadBean, (rnd) -> {
+			SyntheticDownload d = downloads.get(rnd.nextInt(downloads.size()));
+			d.setState(d.getState());
+		});
+
+		// mixed storm with real transitions and result feedback
+		run("event storm", threads, events, threadBean, (rnd) -> {
+			SyntheticDownload d = downloads.get(rnd.nextInt(downloads.size()));
+			int r = rnd.nextInt(100);
+			if (r < 40) {
+				d.setState(nextState(d.getState(), rnd));
+			} else if (r < 60) {
+				d.setAttributes(rnd.nextInt(20) != 0, rnd.nextInt(20) != 0);
+			} else if (r < 85) {
+				d.trackerAnnounce(rnd.nextInt(10) == 0);
+			} else {
+				d.trackerScrape(rnd.nextInt(10) == 0);
+			}
+		});
+
+		System.out.println("tracked after storm: " + tracker.getTrackedTorrentCount() + ", announce queue: "
+				+ tracker.getAnnounceQueueSize() + ", scrape queue: " + tracker.getScrapeQueueSize());
+
+		tracker.stop();
+		plugin.executor.shutdownNow();
+	}
+
+	private interface Action {
+		void run (Random rnd);
+	}
+
+	private static void run (String name, int threads, int events, ThreadMXBean threadBean, Action action)
+			throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		int perThread = events / threads;
+		for (int i = 0; i < threads; i++) {
+			long seed = i;
+			workers[i] = new Thread(() -> {
+				Random rnd = new Random(seed);
+				for (int n = 0; n < perThread; n++) {
+					action.run(rnd);
+				}
+			}, name + "-" + i);
+		}
+
+		long t0 = System.nanoTime();
+		for (Thread t : workers) {
+			t.start();
+		}
+		long blockedCount = 0;
+		long blockedTime = 0;
+		for (Thread t : workers) {
+			// sample before the thread dies, its info is gone afterwards
+			while (t.isAlive()) {
+				ThreadInfo info = threadBean.getThreadInfo(t.getId());
+				t.join(50);
+				if (!t.isAlive() && info != null) {
+					blockedCount += info.getBlockedCount();
+					blockedTime += Math.max(0, info.getBlockedTime());
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - t0;
+
+		System.out.println(String.format("%s: %d events on %d threads in %dms, %.0f events/s, blocked %d times / %dms",
+				name, perThread * threads, threads, elapsed / 1000000, perThread * threads / (elapsed / 1e9),
+				blockedCount, blockedTime));
+	}
+
+	private static int nextState (int state, Random rnd) {
+		switch (state) {
+		case Download.ST_DOWNLOADING:
+			return rnd.nextInt(4) == 0 ? Download.ST_STOPPED : Download.ST_SEEDING;
+		case Download.ST_SEEDING:
+			return rnd.nextBoolean() ? Download.ST_QUEUED : Download.ST_STOPPED;
+		case Download.ST_QUEUED:
+			return Download.ST_DOWNLOADING;
+		default:
+			return rnd.nextBoolean() ? Download.ST_QUEUED : Download.ST_DOWNLOADING;
+		}
+	}
+
+	private static long usedHeap (MemoryMXBean memory) throws InterruptedException {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
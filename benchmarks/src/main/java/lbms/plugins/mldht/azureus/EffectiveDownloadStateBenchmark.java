@@ -0,0 +1,76 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * {@link MlDHTPlugin#getEffectiveDownloadState}, called by
+ * {@link TrackedTorrent#scrapeOnly()} on every schedule and announce.
+ *
+ * Stubbed downloads can't be unwrapped into core DownloadManagers, so the
+ * per-torrent plugin options lookup of the downloading/seeding path is not
+ * covered.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EffectiveDownloadStateBenchmark {
+
+	@Param({ "DOWNLOADING", "SEEDING", "QUEUED", "METADATA" })
+	String				state;
+
+	private Download	download;
+
+	@Setup
+	public void setup () {
+		Random rnd = new Random(42);
+		switch (state) {
+		case "DOWNLOADING":
+			download = Stubs.download(Download.ST_DOWNLOADING, false, false, rnd);
+			break;
+		case "SEEDING":
+			download = Stubs.download(Download.ST_SEEDING, true, false, rnd);
+			break;
+		case "QUEUED":
+			download = Stubs.download(Download.ST_QUEUED, false, false, rnd);
+			break;
+		default:
+			download = Stubs.download(Download.ST_DOWNLOADING, false, true, rnd);
+		}
+	}
+
+	@Benchmark
+	public int getEffectiveDownloadState () {
+		return MlDHTPlugin.getEffectiveDownloadState(download);
+	}
+}
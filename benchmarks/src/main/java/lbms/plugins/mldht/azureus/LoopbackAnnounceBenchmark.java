@@ -0,0 +1,196 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.RPCStats;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.messages.MessageBase.Type;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * End-to-end announce benchmark against a {@link LoopbackSwarm}, entirely
+ * offline. Node 0 of the swarm is the plugin's IPv4 DHT; the real
+ * {@link Tracker} announces (or scrapes) every torrent through it while the
+ * torrents are seeded by random other nodes.
+ *
+ * <pre>
+ * java -cp benchmarks.jar lbms.plugins.mldht.azureus.LoopbackAnnounceBenchmark
+ *     [-nodes 200] [-torrents 1000] [-seeders 3] [-concurrency 8] [-port 40000] [-scrape]
+ * </pre>
+ *
+ * Reports announce latency per phase, RPCs per announce, process CPU and heap.
+ */
+public class LoopbackAnnounceBenchmark {
+
+	public static void main (String[] args) throws Exception {
+		int nodeCount = 200;
+		int torrentCount = 1000;
+		int seeders = 3;
+		int concurrency = Tracker.MAX_CONCURRENT_ANNOUNCES;
+		int basePort = 40000;
+		boolean scrape = false;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-nodes":
+				nodeCount = Integer.parseInt(args[++i]);
+				break;
+			case "-torrents":
+				torrentCount = Integer.parseInt(args[++i]);
+				break;
+			case "-seeders":
+				seeders = Integer.parseInt(args[++i]);
+				break;
+			case "-concurrency":
+				concurrency = Integer.parseInt(args[++i]);
+				break;
+			case "-port":
+				basePort = Integer.parseInt(args[++i]);
+				break;
+			case "-scrape":
+				scrape = true;
+				break;
+			default:
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+
+		DHT.setLogLevel(LogLevel.Fatal);
+
+		System.out.println("starting " + nodeCount + " nodes on 127.0.0.1:" + basePort + "+");
+		LoopbackSwarm swarm = new LoopbackSwarm(nodeCount, basePort);
+		ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+		Tracker tracker = null;
+		try {
+			swarm.start();
+			long t0 = System.currentTimeMillis();
+			if (!swarm.bootstrap(Math.min(16, nodeCount - 1), 5 * 60 * 1000)) {
+				System.err.println("swarm did not bootstrap, the mldht build probably rejects loopback contacts");
+				return;
+			}
+			System.out.println("bootstrapped in " + (System.currentTimeMillis() - t0) + "ms");
+
+			Random rnd = new Random(42);
+			List<Download> downloads = new ArrayList<>(torrentCount);
+			List<byte[]> hashes = new ArrayList<>(torrentCount);
+			for (int i = 0; i < torrentCount; i++) {
+				Download dl = Stubs.download(scrape ? Download.ST_QUEUED : Download.ST_DOWNLOADING, false, false, rnd);
+				downloads.add(dl);
+				hashes.add(dl.getTorrent().getHash());
+			}
+
+			t0 = System.currentTimeMillis();
+			swarm.seed(hashes, seeders, 6881);
+			System.out.println("seeded " + torrentCount + " torrents in " + (System.currentTimeMillis() - t0) + "ms");
+
+			DHT client = swarm.get(0);
+			MlDHTPlugin plugin = Stubs.plugin();
+			plugin.executor = executor;
+			Map<DHTtype, DHT> dhts = new EnumMap<>(DHTtype.class);
+			dhts.put(DHTtype.IPV4_DHT, client);
+			// never started, so lookups are only created on IPv4
+			dhts.put(DHTtype.IPV6_DHT, new DHT(DHTtype.IPV6_DHT));
+			Field f = MlDHTPlugin.class.getDeclaredField("dhts");
+			f.setAccessible(true);
+			f.set(plugin, dhts);
+
+			tracker = new Tracker(plugin);
+			tracker.start();
+
+			OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			long rpcBefore = sentRequests(client);
+			long cpuBefore = processCpuTime(os);
+			long wallBefore = System.nanoTime();
+
+			int started = 0;
+			while (started < torrentCount) {
+				if (tracker.getActiveAnnounceCount() + tracker.getActiveScrapeCount() < concurrency) {
+					tracker.announceDownload(downloads.get(started++));
+				} else {
+					Thread.sleep(2);
+				}
+			}
+			while (tracker.getActiveAnnounceCount() + tracker.getActiveScrapeCount() > 0) {
+				Thread.sleep(10);
+			}
+
+			long wall = System.nanoTime() - wallBefore;
+			long cpu = processCpuTime(os) - cpuBefore;
+			long rpcs = sentRequests(client) - rpcBefore;
+			System.gc();
+			long heap = memory.getHeapMemoryUsage().getUsed();
+
+			System.out.println();
+			System.out.println((scrape ? "scrapes: " : "announces: ") + torrentCount + " in " + wall / 1000000 + "ms, "
+					+ String.format("%.1f/s", torrentCount / (wall / 1e9)));
+			AnnounceLatencyStats stats = tracker.getLatencyStats();
+			for (AnnounceLatencyStats.Phase phase : AnnounceLatencyStats.Phase.values()) {
+				LatencyHistogram h = stats.getHistogram(phase);
+				if (h.getCount() == 0) {
+					continue;
+				}
+				System.out.println(String.format("%-14s n=%-6d p50=%7.1fms p90=%7.1fms p99=%7.1fms max=%7.1fms",
+						phase.label, h.getCount(), h.getValueAtPercentile(50) / 1000.0,
+						h.getValueAtPercentile(90) / 1000.0, h.getValueAtPercentile(99) / 1000.0, h.getMax() / 1000.0));
+			}
+			System.out.println(String.format("RPCs per %s: %.1f", scrape ? "scrape" : "announce", (double) rpcs / torrentCount));
+			if (cpu >= 0) {
+				System.out.println(String.format("CPU: %.1fs (%.0f%% of one core, whole swarm)", cpu / 1e9, 100.0 * cpu / wall));
+			}
+			System.out.println("heap after GC: " + heap / (1024 * 1024) + "MiB, " + tracker.getTimeoutCount() + " timeouts");
+		} finally {
+			if (tracker != null) {
+				tracker.stop();
+			}
+			executor.shutdownNow();
+			swarm.stop();
+		}
+	}
+
+	private static long sentRequests (DHT dht) {
+		RPCStats rpc = dht.getStats().getRpcStats();
+		long total = 0;
+		for (Method m : Method.values()) {
+			total += rpc.getSentMessageCount(m, Type.REQ_MSG);
+		}
+		return total;
+	}
+
+	private static long processCpuTime (OperatingSystemMXBean os) {
+		if (os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+		}
+		return -1;
+	}
+}
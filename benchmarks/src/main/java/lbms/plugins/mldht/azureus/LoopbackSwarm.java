@@ -0,0 +1,190 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import lbms.plugins.mldht.DHTConfiguration;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
+
+/**
+ * N mldht instances in one JVM, listening on consecutive loopback ports and
+ * bootstrapped from each other instead of the public routers.
+ *
+ * Requires an mldht build that accepts loopback addresses as DHT contacts;
+ * builds filtering them as bogons never get past {@link #bootstrap}.
+ */
+public class LoopbackSwarm {
+
+	private final int					basePort;
+	private final Path					storage;
+	private final List<DHT>				nodes		= new ArrayList<>();
+	private final ScheduledExecutorService	scheduler;
+	private final Random				random		= new Random(42);
+
+	public LoopbackSwarm (int size, int basePort) throws IOException {
+		this.basePort = basePort;
+		this.storage = Files.createTempDirectory("mldht-swarm");
+		this.scheduler = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+			Thread t = new Thread(r, "swarm scheduler");
+			t.setDaemon(true);
+			return t;
+		});
+		for (int i = 0; i < size; i++) {
+			DHT dht = new DHT(DHTtype.IPV4_DHT);
+			dht.setScheduler(scheduler);
+			nodes.add(dht);
+		}
+	}
+
+	public void start () throws Exception {
+		for (int i = 0; i < nodes.size(); i++) {
+			nodes.get(i).start(configuration(i));
+		}
+	}
+
+	/**
+	 * Introduces every node to a few others and waits until all routing tables
+	 * contain at least minEntries nodes
+	 *
+	 * @return false if the swarm did not converge within the timeout
+	 */
+	public boolean bootstrap (int minEntries, long timeout) throws InterruptedException {
+		int size = nodes.size();
+		for (int i = 0; i < size; i++) {
+			DHT dht = nodes.get(i);
+			dht.addDHTNode("127.0.0.1", basePort);
+			for (int j = 0; j < 4; j++) {
+				dht.addDHTNode("127.0.0.1", basePort + random.nextInt(size));
+			}
+		}
+
+		long deadline = System.currentTimeMillis() + timeout;
+		while (System.currentTimeMillis() < deadline) {
+			int ready = 0;
+			for (DHT dht : nodes) {
+				if (dht.getStats().getNumPeers() >= Math.min(minEntries, size - 1)) {
+					ready++;
+				}
+			}
+			if (ready == size) {
+				return true;
+			}
+			Thread.sleep(500);
+		}
+		return false;
+	}
+
+	/**
+	 * Announces the info hash from a number of random nodes through the regular
+	 * lookup + announce tasks and waits for them to finish
+	 */
+	public void seed (List<byte[]> hashes, int seedersPerTorrent, int port) throws InterruptedException {
+		CountDownLatch done = new CountDownLatch(hashes.size() * seedersPerTorrent);
+		AtomicInteger inFlight = new AtomicInteger();
+		for (byte[] hash : hashes) {
+			for (int s = 0; s < seedersPerTorrent; s++) {
+				// nodes[0] is reserved for the tracker under test
+				DHT dht = nodes.get(1 + random.nextInt(nodes.size() - 1));
+				while (inFlight.get() >= 64) {
+					Thread.sleep(5);
+				}
+				PeerLookupTask lookup = dht.createPeerLookup(hash);
+				if (lookup == null) {
+					done.countDown();
+					continue;
+				}
+				inFlight.incrementAndGet();
+				lookup.addListener(t -> {
+					dht.announce(lookup, true, port);
+					inFlight.decrementAndGet();
+					done.countDown();
+				});
+				dht.getTaskManager().addTask(lookup);
+			}
+		}
+		done.await();
+	}
+
+	public DHT get (int index) {
+		return nodes.get(index);
+	}
+
+	public int size () {
+		return nodes.size();
+	}
+
+	public void stop () {
+		for (DHT dht : nodes) {
+			try {
+				dht.stop();
+			} catch (Throwable e) {
+				e.printStackTrace();
+			}
+		}
+		scheduler.shutdownNow();
+	}
+
+	private DHTConfiguration configuration (int index) throws IOException {
+		Path dir = Files.createDirectories(storage.resolve("node-" + index));
+		int port = basePort + index;
+		return new DHTConfiguration() {
+			@Override
+			public boolean noRouterBootstrap () {
+				return true;
+			}
+
+			@Override
+			public boolean isPersistingID () {
+				return false;
+			}
+
+			@Override
+			public Path getStoragePath () {
+				return dir;
+			}
+
+			@Override
+			public int getListeningPort () {
+				return port;
+			}
+
+			@Override
+			public boolean allowMultiHoming () {
+				return false;
+			}
+
+			public Predicate<InetAddress> filterBindAddress () {
+				return a -> true;
+			}
+		};
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import com.biglybt.pif.PluginInterface;
+import com.biglybt.pif.download.Download;
+import com.biglybt.pif.torrent.Torrent;
+
+/**
+ * Deep stubs for the BiglyBT plugin interfaces.
+ *
+ * Every interface method returns the configured answer, or a zero value /
+ * empty array / another stub for its return type. equals and hashCode use
+ * identity, so stubs work as map keys like the real objects do.
+ */
+public final class Stubs {
+
+	private Stubs () {}
+
+	@SuppressWarnings("unchecked")
+	public static <T> T stub (Class<T> type, Map<String, Function<Object[], Object>> answers) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new Handler(type, answers));
+	}
+
+	public static <T> T stub (Class<T> type) {
+		return stub(type, new HashMap<>());
+	}
+
+	/**
+	 * @param state one of the Download.ST_* constants
+	 */
+	public static Download download (int state, boolean complete, boolean metadata, Random rnd) {
+		byte[] hash = new byte[20];
+		rnd.nextBytes(hash);
+		String name = "torrent-" + Integer.toHexString(rnd.nextInt());
+
+		Map<String, Function<Object[], Object>> torrentAnswers = new HashMap<>();
+		torrentAnswers.put("getHash", a -> hash);
+		torrentAnswers.put("isPrivate", a -> false);
+		Torrent torrent = stub(Torrent.class, torrentAnswers);
+
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("getState", a -> state);
+		answers.put("isComplete", a -> complete);
+		answers.put("getFlag", a -> metadata && ((Long) a[0]) == Download.FLAG_METADATA_DOWNLOAD);
+		answers.put("getTorrent", a -> torrent);
+		answers.put("getName", a -> name);
+		return stub(Download.class, answers);
+	}
+
+	/**
+	 * @return an uninitialized plugin wired to a stubbed PluginInterface
+	 */
+	public static MlDHTPlugin plugin () {
+		return plugin(new HashMap<>());
+	}
+
+	/**
+	 * @param answers overrides for PluginInterface methods, e.g. getDownloadManager
+	 */
+	public static MlDHTPlugin plugin (Map<String, Function<Object[], Object>> answers) {
+		MlDHTPlugin plugin = new MlDHTPlugin();
+		try {
+			Field f = MlDHTPlugin.class.getDeclaredField("pluginInterface");
+			f.setAccessible(true);
+			f.set(plugin, stub(PluginInterface.class, answers));
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+		return plugin;
+	}
+
+	private static final class Handler implements InvocationHandler {
+
+		private final Class<?>								type;
+		private final Map<String, Function<Object[], Object>>	answers;
+		private final Map<Method, Object>					children	= new ConcurrentHashMap<>();
+
+		Handler (Class<?> type, Map<String, Function<Object[], Object>> answers) {
+			this.type = type;
+			this.answers = answers;
+		}
+
+		@Override
+		public Object invoke (Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				if (method.getParameterCount() == 1) {
+					return proxy == args[0];
+				}
+				break;
+			case "hashCode":
+				if (method.getParameterCount() == 0) {
+					return System.identityHashCode(proxy);
+				}
+				break;
+			case "toString":
+				if (method.getParameterCount() == 0) {
+					return "stub " + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+				}
+				break;
+			default:
+			}
+
+			Function<Object[], Object> answer = answers.get(method.getName());
+			if (answer != null) {
+				return answer.apply(args == null ? new Object[0] : args);
+			}
+
+			Class<?> r = method.getReturnType();
+			if (r.isInterface()) {
+				return children.computeIfAbsent(method, m -> stub(r));
+			}
+			return defaultValue(r);
+		}
+	}
+
+	/**
+	 * @return zero, false, an empty string or array, or null for other types
+	 */
+	public static Object defaultValue (Class<?> r) {
+		if (r == void.class) {
+			return null;
+		}
+		if (r.isPrimitive()) {
+			return zero(r);
+		}
+		if (r == String.class) {
+			return "";
+		}
+		if (r.isArray()) {
+			return Array.newInstance(r.getComponentType(), 0);
+		}
+		return null;
+	}
+
+	private static Object zero (Class<?> r) {
+		if (r == boolean.class) {
+			return false;
+		}
+		if (r == char.class) {
+			return (char) 0;
+		}
+		if (r == byte.class) {
+			return (byte) 0;
+		}
+		if (r == short.class) {
+			return (short) 0;
+		}
+		if (r == int.class) {
+			return 0;
+		}
+		if (r == long.class) {
+			return 0L;
+		}
+		if (r == float.class) {
+			return 0f;
+		}
+		return 0d;
+	}
+}
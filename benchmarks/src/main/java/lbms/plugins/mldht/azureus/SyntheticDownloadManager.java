@@ -0,0 +1,423 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import com.biglybt.pif.download.Download;
+import com.biglybt.pif.download.DownloadAnnounceResult;
+import com.biglybt.pif.download.DownloadAttributeListener;
+import com.biglybt.pif.download.DownloadListener;
+import com.biglybt.pif.download.DownloadManager;
+import com.biglybt.pif.download.DownloadManagerListener;
+import com.biglybt.pif.download.DownloadScrapeResult;
+import com.biglybt.pif.download.DownloadTrackerListener;
+import com.biglybt.pif.torrent.Torrent;
+import com.biglybt.pif.torrent.TorrentAttribute;
+import com.biglybt.pif.torrent.TorrentManager;
+
+/**
+ * Stand-in for the plugin DownloadManager holding fabricated downloads.
+ *
+ * Downloads keep their state, list attributes, last announce/scrape results and
+ * listeners like the real ones do; {@link SyntheticDownload} methods change
+ * them and fire the matching listener events synchronously on the calling
+ * thread.
+ */
+public class SyntheticDownloadManager {
+
+	/**
+	 * Fractions of the download states (normalized) plus the share of private
+	 * and metadata downloads, e.g.
+	 * "downloading=0.2,seeding=0.6,queued=0.1,stopped=0.1,private=0.02,metadata=0.01"
+	 */
+	public static final class Mix {
+		double	downloading	= 0.2;
+		double	seeding		= 0.6;
+		double	queued		= 0.1;
+		double	stopped		= 0.1;
+		double	privateShare	= 0.02;
+		double	metadata	= 0.01;
+
+		public static Mix parse (String spec) {
+			Mix m = new Mix();
+			for (String part : spec.split(",")) {
+				String[] kv = part.split("=");
+				double v = Double.parseDouble(kv[1]);
+				switch (kv[0].trim()) {
+				case "downloading":
+					m.downloading = v;
+					break;
+				case "seeding":
+					m.seeding = v;
+					break;
+				case "queued":
+					m.queued = v;
+					break;
+				case "stopped":
+					m.stopped = v;
+					break;
+				case "private":
+					m.privateShare = v;
+					break;
+				case "metadata":
+					m.metadata = v;
+					break;
+				default:
+					throw new IllegalArgumentException("unknown mix entry " + kv[0]);
+				}
+			}
+			return m;
+		}
+
+		int randomState (Random rnd) {
+			double r = rnd.nextDouble() * (downloading + seeding + queued + stopped);
+			if ((r -= downloading) < 0) {
+				return Download.ST_DOWNLOADING;
+			}
+			if ((r -= seeding) < 0) {
+				return Download.ST_SEEDING;
+			}
+			if (r - queued < 0) {
+				return Download.ST_QUEUED;
+			}
+			return Download.ST_STOPPED;
+		}
+
+		@Override
+		public String toString () {
+			return "downloading=" + downloading + ",seeding=" + seeding + ",queued=" + queued + ",stopped=" + stopped
+					+ ",private=" + privateShare + ",metadata=" + metadata;
+		}
+	}
+
+	private static final String[]					PUBLIC_NETWORKS	= { "Public" };
+	private static final String[]					I2P_NETWORKS	= { "I2P" };
+	private static final String[]					ALL_SOURCES		= { "Tracker", "DHT", "PeerExchange", "Plugin" };
+	private static final String[]					NO_DHT_SOURCES	= { "Tracker", "PeerExchange" };
+
+	private final List<SyntheticDownload>			downloads		= new ArrayList<>();
+	private final List<DownloadManagerListener>		listeners		= new CopyOnWriteArrayList<>();
+	private final Map<String, TorrentAttribute>		attributes		= new ConcurrentHashMap<>();
+	private final DownloadManager					manager;
+	private final TorrentManager					torrentManager;
+	private final TorrentAttribute					networks;
+	private final TorrentAttribute					sources;
+	private final Random							random;
+
+	public SyntheticDownloadManager (int count, Mix mix, long seed) {
+		Map<String, Function<Object[], Object>> tm = new HashMap<>();
+		tm.put("getAttribute", a -> attribute((String) a[0]));
+		torrentManager = Stubs.stub(TorrentManager.class, tm);
+		networks = attribute(TorrentAttribute.TA_NETWORKS);
+		sources = attribute(TorrentAttribute.TA_PEER_SOURCES);
+
+		random = new Random(seed);
+		for (int i = 0; i < count; i++) {
+			downloads.add(new SyntheticDownload(i, mix.randomState(random), random.nextDouble() < mix.privateShare,
+					random.nextDouble() < mix.metadata, random));
+		}
+
+		Map<String, Function<Object[], Object>> dm = new HashMap<>();
+		dm.put("getDownloads", a -> {
+			Download[] result = new Download[downloads.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = downloads.get(i).proxy;
+			}
+			return result;
+		});
+		dm.put("addListener", a -> {
+			DownloadManagerListener l = (DownloadManagerListener) a[0];
+			listeners.add(l);
+			// like the real manager, notify of existing downloads unless told otherwise
+			if (a.length < 2 || (Boolean) a[1]) {
+				for (SyntheticDownload d : downloads) {
+					l.downloadAdded(d.proxy);
+				}
+			}
+			return null;
+		});
+		dm.put("removeListener", a -> {
+			listeners.remove(a[0]);
+			return null;
+		});
+		manager = Stubs.stub(DownloadManager.class, dm);
+	}
+
+	private TorrentAttribute attribute (String name) {
+		return attributes.computeIfAbsent(name, n -> {
+			Map<String, Function<Object[], Object>> answers = new HashMap<>();
+			answers.put("getName", a -> n);
+			return Stubs.stub(TorrentAttribute.class, answers);
+		});
+	}
+
+	public DownloadManager getDownloadManager () {
+		return manager;
+	}
+
+	public TorrentManager getTorrentManager () {
+		return torrentManager;
+	}
+
+	public List<SyntheticDownload> getDownloads () {
+		return downloads;
+	}
+
+	/**
+	 * Creates a download without telling the listeners, see {@link #added}
+	 */
+	public SyntheticDownload create (int state, boolean privateTorrent, boolean metadata) {
+		SyntheticDownload d = new SyntheticDownload(downloads.size(), state, privateTorrent, metadata, random);
+		downloads.add(d);
+		return d;
+	}
+
+	public void added (SyntheticDownload d) {
+		for (DownloadManagerListener l : listeners) {
+			l.downloadAdded(d.proxy);
+		}
+	}
+
+	public void remove (SyntheticDownload d) {
+		downloads.remove(d);
+		for (DownloadManagerListener l : listeners) {
+			l.downloadRemoved(d.proxy);
+		}
+	}
+
+	public final class SyntheticDownload implements InvocationHandler {
+
+		final Download									proxy;
+		private final String							name;
+		private final boolean							privateTorrent;
+		private final boolean							metadata;
+		private final Torrent							torrent;
+		private volatile int							state;
+		private volatile boolean						complete;
+		private volatile String[]						networkList			= PUBLIC_NETWORKS;
+		private volatile String[]						sourceList			= ALL_SOURCES;
+		private volatile DownloadAnnounceResult			announceResult;
+		private volatile DownloadScrapeResult			scrapeResult;
+		private final List<DownloadListener>			downloadListeners	= new CopyOnWriteArrayList<>();
+		private final List<DownloadTrackerListener>		trackerListeners	= new CopyOnWriteArrayList<>();
+		// listener, attribute, event type
+		private final List<Object[]>					attributeListeners	= new CopyOnWriteArrayList<>();
+
+		SyntheticDownload (int index, int state, boolean privateTorrent, boolean metadata, Random rnd) {
+			this.name = "synthetic-" + index;
+			this.state = state;
+			this.complete = state == Download.ST_SEEDING;
+			this.privateTorrent = privateTorrent;
+			this.metadata = metadata;
+
+			byte[] hash = new byte[20];
+			rnd.nextBytes(hash);
+			Map<String, Function<Object[], Object>> t = new HashMap<>();
+			t.put("getHash", a -> hash);
+			t.put("isPrivate", a -> privateTorrent);
+			t.put("getName", a -> name);
+			torrent = Stubs.stub(Torrent.class, t);
+
+			scrapeResult = scrapeResult(DownloadScrapeResult.RT_SUCCESS);
+			proxy = (Download) Proxy.newProxyInstance(Download.class.getClassLoader(), new Class<?>[] { Download.class }, this);
+		}
+
+		public Download getDownload () {
+			return proxy;
+		}
+
+		public int getState () {
+			return state;
+		}
+
+		public void setState (int newState) {
+			int old = state;
+			state = newState;
+			complete = newState == Download.ST_SEEDING;
+			fireStateChanged(old);
+		}
+
+		/**
+		 * Overwrites everything the Tracker looks at without firing any event,
+		 * announce and scrape results are only replaced if their type changes
+		 */
+		public void update (int newState, boolean isComplete, boolean publicNetwork, boolean dhtSource,
+				boolean announceError, boolean scrapeError) {
+			state = newState;
+			complete = isComplete;
+			networkList = publicNetwork ? PUBLIC_NETWORKS : I2P_NETWORKS;
+			sourceList = dhtSource ? ALL_SOURCES : NO_DHT_SOURCES;
+			if (announceError != (announceResult == null || announceResult.getResponseType() == DownloadAnnounceResult.RT_ERROR)) {
+				announceResult = announceResult(announceError);
+			}
+			if (scrapeError != (scrapeResult.getResponseType() == DownloadScrapeResult.RT_ERROR)) {
+				scrapeResult = scrapeResult(scrapeError ? DownloadScrapeResult.RT_ERROR : DownloadScrapeResult.RT_SUCCESS);
+			}
+		}
+
+		public void fireStateChanged (int oldState) {
+			for (DownloadListener l : downloadListeners) {
+				l.stateChanged(proxy, oldState, state);
+			}
+		}
+
+		public void fireAttributes () {
+			fireAttribute(networks);
+		}
+
+		public void fireAnnounceResult () {
+			for (DownloadTrackerListener l : trackerListeners) {
+				l.announceResult(announceResult);
+			}
+		}
+
+		public void fireScrapeResult () {
+			for (DownloadTrackerListener l : trackerListeners) {
+				l.scrapeResult(scrapeResult);
+			}
+		}
+
+		/**
+		 * Rewrites the network and peer source attributes and fires the
+		 * attribute events
+		 */
+		public void setAttributes (boolean publicNetwork, boolean dhtSource) {
+			networkList = publicNetwork ? PUBLIC_NETWORKS : I2P_NETWORKS;
+			fireAttribute(networks);
+			sourceList = dhtSource ? ALL_SOURCES : NO_DHT_SOURCES;
+			fireAttribute(sources);
+		}
+
+		/**
+		 * Simulates a result from the regular tracker
+		 */
+		public void trackerAnnounce (boolean error) {
+			setAnnounceResult(announceResult(error));
+		}
+
+		/**
+		 * Simulates a scrape from the regular tracker
+		 */
+		public void trackerScrape (boolean error) {
+			setScrapeResult(scrapeResult(error ? DownloadScrapeResult.RT_ERROR : DownloadScrapeResult.RT_SUCCESS));
+		}
+
+		private DownloadAnnounceResult announceResult (boolean error) {
+			Map<String, Function<Object[], Object>> r = new HashMap<>();
+			r.put("getDownload", a -> proxy);
+			r.put("getResponseType", a -> error ? DownloadAnnounceResult.RT_ERROR : DownloadAnnounceResult.RT_SUCCESS);
+			return Stubs.stub(DownloadAnnounceResult.class, r);
+		}
+
+		private DownloadScrapeResult scrapeResult (int type) {
+			long start = System.currentTimeMillis();
+			Map<String, Function<Object[], Object>> r = new HashMap<>();
+			r.put("getDownload", a -> proxy);
+			r.put("getResponseType", a -> type);
+			r.put("getScrapeStartTime", a -> start);
+			return Stubs.stub(DownloadScrapeResult.class, r);
+		}
+
+		private void setAnnounceResult (DownloadAnnounceResult result) {
+			announceResult = result;
+			fireAnnounceResult();
+		}
+
+		private void setScrapeResult (DownloadScrapeResult result) {
+			scrapeResult = result;
+			fireScrapeResult();
+		}
+
+		private void fireAttribute (TorrentAttribute attribute) {
+			for (Object[] entry : attributeListeners) {
+				if (entry[1] == attribute && ((Integer) entry[2]) == DownloadAttributeListener.WRITTEN) {
+					((DownloadAttributeListener) entry[0]).attributeEventOccurred(proxy, attribute,
+							DownloadAttributeListener.WRITTEN);
+				}
+			}
+		}
+
+		int listenerCount () {
+			return downloadListeners.size() + trackerListeners.size() + attributeListeners.size();
+		}
+
+		@Override
+		public Object invoke (Object p, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "equals":
+				return args != null && args.length == 1 && p == args[0];
+			case "hashCode":
+				return System.identityHashCode(p);
+			case "toString":
+				return name;
+			case "getName":
+				return name;
+			case "getState":
+				return state;
+			case "getFlag":
+				return metadata && ((Long) args[0]) == Download.FLAG_METADATA_DOWNLOAD;
+			case "isComplete":
+				return complete;
+			case "getTorrent":
+				return torrent;
+			case "getListAttribute":
+				return args[0] == networks ? networkList : args[0] == sources ? sourceList : null;
+			case "getLastAnnounceResult":
+				return announceResult;
+			case "getLastScrapeResult":
+				return scrapeResult;
+			case "setAnnounceResult":
+				setAnnounceResult((DownloadAnnounceResult) args[0]);
+				return null;
+			case "setScrapeResult":
+				setScrapeResult((DownloadScrapeResult) args[0]);
+				return null;
+			case "addListener":
+				downloadListeners.add((DownloadListener) args[0]);
+				return null;
+			case "removeListener":
+				downloadListeners.remove(args[0]);
+				return null;
+			case "addTrackerListener":
+				trackerListeners.add((DownloadTrackerListener) args[0]);
+				return null;
+			case "removeTrackerListener":
+				trackerListeners.remove(args[0]);
+				return null;
+			case "addAttributeListener":
+				attributeListeners.add(new Object[] { args[0], args[1], args[2] });
+				return null;
+			case "removeAttributeListener":
+				attributeListeners.removeIf(e -> e[0] == args[0] && e[1] == args[1]);
+				return null;
+			default:
+				return Stubs.defaultValue(method.getReturnType());
+			}
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Tracker's threading on platform and virtual threads with many
+ * concurrent announces, using the real {@link SystemTrackerEnvironment}.
+ *
+ * Every torrent is started on its dispatch partition, finishes its lookup on a
+ * small "DHT" executor at a random time and then delivers an interim result
+ * via execute and its final result on its partition. Both deliveries block
+ * for a while to stand in for the core's result handling. Reports the peak
+ * number of platform threads, how late the DHT executor ran its tasks and the
+ * delivery latencies.
+ *
+ * <pre>
+ * java [-Dmldht.virtualThreads=false] -cp benchmarks.jar lbms.plugins.mldht.azureus.ThreadModeLoadTest
+ *     [-torrents 10000] [-block 20] [-spread 5000] [-dhtThreads 2]
+ * </pre>
+ *
+ * Virtual threads are only used when running the multi-release jar on Java 21+.
+ */
+public class ThreadModeLoadTest {
+
+	public static void main (String[] args) throws Exception {
+		int torrents = 10000;
+		int block = 20;
+		int spread = 5000;
+		int dhtThreads = 2;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-torrents":
+				torrents = Integer.parseInt(args[++i]);
+				break;
+			case "-block":
+				block = Integer.parseInt(args[++i]);
+				break;
+			case "-spread":
+				spread = Integer.parseInt(args[++i]);
+				break;
+			case "-dhtThreads":
+				dhtThreads = Integer.parseInt(args[++i]);
+				break;
+			default:
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+
+		System.out.println("virtual threads " + (ThreadSupport.hasVirtualThreads() ? "on" : "off") + ", " + torrents
+				+ " torrents over " + spread + "ms, deliveries block " + block + "ms, " + dhtThreads + " DHT threads");
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		SystemTrackerEnvironment env = new SystemTrackerEnvironment(null);
+		InstrumentedScheduledExecutor dht = new InstrumentedScheduledExecutor("dht", new ScheduledThreadPoolExecutor(dhtThreads));
+		LatencyHistogram interim = new LatencyHistogram();
+		LatencyHistogram completion = new LatencyHistogram();
+		CountDownLatch done = new CountDownLatch(torrents * 2);
+		Random random = new Random(42);
+		final int blockMillis = block;
+
+		int baseThreads = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+
+		for (int i = 0; i < torrents; i++) {
+			long lookupTime = random.nextInt(Math.max(1, spread));
+			int partition = random.nextInt();
+			env.dispatch(partition, () -> dht.schedule(() -> {
+				long finished = System.nanoTime();
+				env.execute("mlDHT:interim", () -> {
+					sleep(blockMillis);
+					interim.recordNanos(System.nanoTime() - finished);
+					done.countDown();
+				});
+				env.dispatch(partition, () -> {
+					sleep(blockMillis);
+					completion.recordNanos(System.nanoTime() - finished);
+					done.countDown();
+				});
+			}, lookupTime, TimeUnit.MILLISECONDS));
+		}
+
+		done.await();
+		long elapsed = System.nanoTime() - start;
+		dht.shutdown();
+		env.close();
+
+		System.out.println("finished in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + "ms");
+		System.out.println("platform threads: " + baseThreads + " before, peak " + threads.getPeakThreadCount());
+		print("DHT executor start lag", dht.getStartLag());
+		print("DHT executor run time", dht.getRunTimes());
+		print("interim delivery", interim);
+		print("completion delivery", completion);
+	}
+
+	private static void sleep (int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void print (String name, LatencyHistogram h) {
+		System.out.printf("%s: n=%d p50=%.1fms p99=%.1fms max=%.1fms%n", name, h.getCount(),
+				h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0, h.getMax() / 1000.0);
+	}
+}
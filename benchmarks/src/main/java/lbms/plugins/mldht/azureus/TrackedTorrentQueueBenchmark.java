@@ -0,0 +1,88 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * {@link TrackedTorrent#compareTo} as exercised by the Tracker's DelayQueues.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackedTorrentQueueBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	int								torrents;
+
+	private TrackedTorrent[]		tracked;
+	private DelayQueue<TrackedTorrent>	queue;
+	private Random					rnd;
+	private int						next;
+
+	@Setup
+	public void setup () {
+		rnd = new Random(42);
+		tracked = new TrackedTorrent[torrents];
+		queue = new DelayQueue<>();
+		for (int i = 0; i < torrents; i++) {
+			tracked[i] = new TrackedTorrent(Stubs.download(Download.ST_SEEDING, true, false, rnd),
+					Tracker.MIN_ANNOUNCE_INTERVAL + rnd.nextInt(Tracker.MAX_ANNOUNCE_INTERVAL));
+			queue.add(tracked[i]);
+		}
+	}
+
+	@Benchmark
+	public int compareTo () {
+		TrackedTorrent a = tracked[next];
+		next = next + 1 == tracked.length ? 0 : next + 1;
+		return a.compareTo(tracked[next]);
+	}
+
+	/**
+	 * Head of the queue is moved to a new delay, i.e. one poll/offer cycle
+	 */
+	@Benchmark
+	public TrackedTorrent requeueHead () {
+		TrackedTorrent head = queue.peek();
+		queue.remove(head);
+		head.setDelay(Tracker.MIN_ANNOUNCE_INTERVAL + rnd.nextInt(Tracker.MAX_ANNOUNCE_INTERVAL));
+		queue.add(head);
+		return head;
+	}
+
+	@Benchmark
+	public TrackedTorrent pollNotDue () {
+		return queue.poll();
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * Scheduling and dequeuing with 1k to 100k tracked torrents. The torrents are
+ * complete and seeding so that tracking them schedules a regular (not
+ * immediate) announce and no DHT is needed.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackerQueueBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	int							torrents;
+
+	private MlDHTPlugin			plugin;
+	private Tracker				tracker;
+	private Download[]			downloads;
+	private int					next;
+
+	@Setup(Level.Trial)
+	public void setup () {
+		plugin = Stubs.plugin();
+		plugin.executor = new ScheduledThreadPoolExecutor(1);
+		tracker = new Tracker(plugin);
+		tracker.start();
+
+		Random rnd = new Random(42);
+		downloads = new Download[torrents];
+		for (int i = 0; i < torrents; i++) {
+			downloads[i] = Stubs.download(Download.ST_SEEDING, true, false, rnd);
+			tracker.addTrackedTorrent(downloads[i], "benchmark");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown () {
+		tracker.stop();
+		plugin.executor.shutdownNow();
+	}
+
+	private Download nextDownload () {
+		Download dl = downloads[next];
+		next = next + 1 == downloads.length ? 0 : next + 1;
+		return dl;
+	}
+
+	/**
+	 * Short delay reschedule: removes the torrent from the queue and inserts it again
+	 */
+	@Benchmark
+	public void rescheduleShort () {
+		tracker.scheduleTorrent(nextDownload(), true);
+	}
+
+	/**
+	 * Regular reschedule of a torrent that is already queued, the common case
+	 * for state changes and announce results
+	 */
+	@Benchmark
+	public void rescheduleQueued () {
+		tracker.scheduleTorrent(nextDownload(), false);
+	}
+
+	/**
+	 * Periodic queue check while no torrent is due
+	 */
+	@Benchmark
+	public void checkQueues () {
+		tracker.checkQueuesSupport();
+	}
+}
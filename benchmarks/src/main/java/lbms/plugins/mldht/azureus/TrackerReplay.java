@@ -0,0 +1,215 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import lbms.plugins.mldht.azureus.SyntheticDownloadManager.SyntheticDownload;
+import lbms.plugins.mldht.azureus.TrackerRecorder.Record;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+
+/**
+ * Feeds a {@link TrackerRecorder} recording back into the {@link Tracker} of
+ * this build and compares its decisions with the recorded ones.
+ *
+ * <pre>
+ * java -cp benchmarks.jar lbms.plugins.mldht.azureus.TrackerReplay &lt;recording&gt; [-speed 0] [-seed 1]
+ * </pre>
+ *
+ * The Tracker runs in virtual time, so a replay is deterministic for a given
+ * seed. -speed 0 (the default) replays as fast as possible, 1 paces the
+ * events at their original speed, 10 ten times faster and so on. No DHT is
+ * running and announces complete the moment they start, so the replay can't
+ * tell how many lookups would have run at once. It only compares how many
+ * were started per queue check interval.
+ */
+public class TrackerReplay {
+
+	private static final class Counts {
+		long				announces;
+		long				scrapes;
+		int					peakStarted;
+		LatencyHistogram	queueWait	= new LatencyHistogram();
+	}
+
+	public static void main (String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("usage: TrackerReplay <recording> [-speed 0] [-seed 1]");
+			return;
+		}
+		double speed = 0;
+		long seed = 1;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+			case "-speed":
+				speed = Double.parseDouble(args[++i]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			default:
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+
+		List<Record> records = new ArrayList<>();
+		long start;
+		try (TrackerRecorder.Reader reader = new TrackerRecorder.Reader(new File(args[0]))) {
+			start = reader.getStartTime();
+			Record r;
+			while ((r = reader.next()) != null) {
+				records.add(r);
+			}
+		}
+		long end = records.isEmpty() ? start : records.get(records.size() - 1).time;
+
+		DHT.setLogLevel(LogLevel.Fatal);
+		VirtualTrackerEnvironment env = new VirtualTrackerEnvironment(start, seed);
+		SyntheticDownloadManager dm = new SyntheticDownloadManager(0, new SyntheticDownloadManager.Mix(), seed);
+		Map<String, Function<Object[], Object>> answers = new HashMap<>();
+		answers.put("getDownloadManager", a -> dm.getDownloadManager());
+		answers.put("getTorrentManager", a -> dm.getTorrentManager());
+		Tracker tracker = new Tracker(Stubs.plugin(answers), env);
+		tracker.start();
+
+		Counts recorded = new Counts();
+		Counts replayed = new Counts();
+		Map<Integer, SyntheticDownload> downloads = new HashMap<>();
+
+		long wallStart = System.nanoTime();
+		long interval = Tracker.TRACKER_UPDATE_INTERVAL;
+		long windowEnd = start + interval;
+		int recordedInWindow = 0;
+		long startedBefore = 0;
+		int index = 0;
+
+		while (index < records.size() || windowEnd <= end) {
+			long next = index < records.size() ? Math.min(records.get(index).time, windowEnd) : windowEnd;
+			if (speed > 0) {
+				long due = wallStart + (long) ((next - start) * 1000000 / speed);
+				long sleep = due - System.nanoTime();
+				if (sleep > 0) {
+					Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+				}
+			}
+			env.runUntil(next);
+
+			if (next == windowEnd) {
+				long started = tracker.getAnnouncesStarted() + tracker.getScrapesStarted();
+				replayed.peakStarted = Math.max(replayed.peakStarted, (int) (started - startedBefore));
+				startedBefore = started;
+				recorded.peakStarted = Math.max(recorded.peakStarted, recordedInWindow);
+				recordedInWindow = 0;
+				windowEnd += interval;
+				continue;
+			}
+
+			Record r = records.get(index++);
+			if (r.event.isInput()) {
+				apply(r, dm, downloads);
+				continue;
+			}
+			switch (r.event) {
+			case ANNOUNCE_STARTED:
+			case SCRAPE_STARTED:
+				if (r.event == TrackerRecorder.Event.ANNOUNCE_STARTED) {
+					recorded.announces++;
+				} else {
+					recorded.scrapes++;
+				}
+				recorded.queueWait.record(r.value * 1000L);
+				recordedInWindow++;
+				break;
+			default:
+			}
+		}
+		replayed.announces = tracker.getAnnouncesStarted();
+		replayed.scrapes = tracker.getScrapesStarted();
+		// getHistogram merges into a copy, take it once everything has been replayed
+		replayed.queueWait = tracker.getLatencyStats().getHistogram(AnnounceLatencyStats.Phase.QUEUE_WAIT);
+		long wall = (System.nanoTime() - wallStart) / 1000000;
+		tracker.stop();
+
+		System.out.println(String.format("replayed %d records over %.1fh in %dms, %d downloads", records.size(),
+				(end - start) / 3600000.0, wall, downloads.size()));
+		System.out.println();
+		System.out.println(String.format("%-34s %12s %12s", "", "recorded", "replayed"));
+		row("announces started", recorded.announces, replayed.announces);
+		row("scrapes started", recorded.scrapes, replayed.scrapes);
+		for (int p : new int[] { 50, 90, 99 }) {
+			row("queue wait p" + p + " (ms)", recorded.queueWait.getValueAtPercentile(p) / 1000,
+					replayed.queueWait.getValueAtPercentile(p) / 1000);
+		}
+		row("queue wait max (ms)", recorded.queueWait.getMax() / 1000, replayed.queueWait.getMax() / 1000);
+		row("peak lookups started per " + interval / 1000 + "s", recorded.peakStarted, replayed.peakStarted);
+	}
+
+	private static void apply (Record r, SyntheticDownloadManager dm, Map<Integer, SyntheticDownload> downloads) {
+		SyntheticDownload d = downloads.get(r.id);
+		if (r.event == TrackerRecorder.Event.REMOVED) {
+			if (d != null) {
+				downloads.remove(r.id);
+				dm.remove(d);
+			}
+			return;
+		}
+
+		int flags = r.value2;
+		boolean added = d == null;
+		if (added) {
+			d = dm.create(r.value, (flags & TrackerRecorder.FLAG_PRIVATE) != 0, (flags & TrackerRecorder.FLAG_METADATA) != 0);
+			downloads.put(r.id, d);
+		}
+		int oldState = d.getState();
+		d.update(r.value, (flags & TrackerRecorder.FLAG_COMPLETE) != 0, (flags & TrackerRecorder.FLAG_PUBLIC_NETWORK) != 0,
+				(flags & TrackerRecorder.FLAG_DHT_SOURCE) != 0, (flags & TrackerRecorder.FLAG_ANNOUNCE_ERROR) != 0,
+				(flags & TrackerRecorder.FLAG_SCRAPE_ERROR) != 0);
+		if (added) {
+			// also covers recordings that were started while downloads already existed
+			dm.added(d);
+			return;
+		}
+
+		switch (r.event) {
+		case STATE_CHANGED:
+			d.fireStateChanged(oldState);
+			break;
+		case ATTRIBUTE:
+			d.fireAttributes();
+			break;
+		case ANNOUNCE_RESULT:
+			d.fireAnnounceResult();
+			break;
+		case SCRAPE_RESULT:
+			d.fireScrapeResult();
+			break;
+		default:
+		}
+	}
+
+	private static void row (String name, long recorded, long replayed) {
+		System.out.println(String.format("%-34s %12d %12d", name, recorded, replayed));
+	}
+}
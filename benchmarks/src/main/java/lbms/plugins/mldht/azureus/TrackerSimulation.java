@@ -0,0 +1,179 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * Runs the real {@link Tracker} scheduling logic in virtual time.
+ *
+ * <pre>
+ * java -cp benchmarks.jar lbms.plugins.mldht.azureus.TrackerSimulation
+ *     [-torrents 50000] [-hours 24] [-seed 1] [-seeding 0.7] [-queued 0.1]
+ * </pre>
+ *
+ * No DHT is running in the simulation, so every announce completes the moment
+ * it starts; what is evaluated is the scheduling: announce counts, the
+ * distribution of intervals between announces, fairness across torrents and
+ * how many announces are started or overdue at once.
+ */
+public class TrackerSimulation {
+
+	private static final String[]	CLASSES	= { "downloading", "seeding", "scrape only" };
+
+	public static void main (String[] args) {
+		int torrentCount = 50000;
+		double hours = 24;
+		long seed = 1;
+		double seeding = 0.7;
+		double queued = 0.1;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+			case "-torrents":
+				torrentCount = Integer.parseInt(args[++i]);
+				break;
+			case "-hours":
+				hours = Double.parseDouble(args[++i]);
+				break;
+			case "-seed":
+				seed = Long.parseLong(args[++i]);
+				break;
+			case "-seeding":
+				seeding = Double.parseDouble(args[++i]);
+				break;
+			case "-queued":
+				queued = Double.parseDouble(args[++i]);
+				break;
+			default:
+				System.err.println("unknown option " + args[i]);
+				return;
+			}
+		}
+
+		long wallStart = System.nanoTime();
+		long start = 1500000000000L;
+		long end = start + (long) (hours * 3600 * 1000);
+
+		VirtualTrackerEnvironment env = new VirtualTrackerEnvironment(start, seed);
+		Tracker tracker = new Tracker(Stubs.plugin(), env);
+		tracker.start();
+
+		Random rnd = new Random(seed);
+		Download[] downloads = new Download[torrentCount];
+		int[] torrentClass = new int[torrentCount];
+		for (int i = 0; i < torrentCount; i++) {
+			double r = rnd.nextDouble();
+			if (r < queued) {
+				torrentClass[i] = 2;
+				downloads[i] = Stubs.download(Download.ST_QUEUED, false, false, rnd);
+			} else if (r < queued + seeding) {
+				torrentClass[i] = 1;
+				downloads[i] = Stubs.download(Download.ST_SEEDING, true, false, rnd);
+			} else {
+				torrentClass[i] = 0;
+				downloads[i] = Stubs.download(Download.ST_DOWNLOADING, false, false, rnd);
+			}
+			tracker.addTrackedTorrent(downloads[i], "simulation");
+		}
+
+		TrackedTorrent[] tracked = new TrackedTorrent[torrentCount];
+		for (int i = 0; i < torrentCount; i++) {
+			tracked[i] = tracker.getTrackedTorrent(downloads[i]);
+		}
+
+		int[] counts = new int[torrentCount];
+		long[] lastStart = new long[torrentCount];
+		LatencyHistogram[] intervals = new LatencyHistogram[CLASSES.length];
+		for (int c = 0; c < CLASSES.length; c++) {
+			intervals[c] = new LatencyHistogram();
+		}
+		int peakStarted = 0;
+		long peakStartedAt = 0;
+		int peakOverdue = 0;
+		long maxLateness = 0;
+
+		for (long t = start; t < end;) {
+			t = Math.min(end, t + Tracker.TRACKER_UPDATE_INTERVAL);
+			env.runUntil(t);
+
+			int started = 0;
+			int overdue = 0;
+			for (int i = 0; i < torrentCount; i++) {
+				TrackedTorrent.Stats s = tracked[i].getStats();
+				if (s.announceCount != counts[i]) {
+					started += s.announceCount - counts[i];
+					if (counts[i] > 0) {
+						// seconds between consecutive announce starts
+						intervals[torrentClass[i]].record((s.lastAnnounceStart - lastStart[i]) / 1000);
+					}
+					counts[i] = s.announceCount;
+					lastStart[i] = s.lastAnnounceStart;
+				}
+				if (s.nextAnnounce != 0 && s.nextAnnounce < t) {
+					overdue++;
+					maxLateness = Math.max(maxLateness, t - s.nextAnnounce);
+				}
+			}
+			if (started > peakStarted) {
+				peakStarted = started;
+				peakStartedAt = t - start;
+			}
+			peakOverdue = Math.max(peakOverdue, overdue);
+		}
+
+		long wall = (System.nanoTime() - wallStart) / 1000000;
+		tracker.stop();
+
+		System.out.println(String.format("simulated %.1fh with %d torrents in %dms (%d events)", hours, torrentCount,
+				wall, env.getExecutedEvents()));
+		System.out.println("announces started: " + tracker.getAnnouncesStarted() + ", scrapes started: "
+				+ tracker.getScrapesStarted());
+		System.out.println();
+		System.out.println(String.format("%-12s %8s %10s %8s %8s %8s %8s %8s %9s", "class", "torrents", "announces",
+				"min", "p50", "p90", "p99", "max", "fairness"));
+		for (int c = 0; c < CLASSES.length; c++) {
+			int n = 0;
+			double sum = 0;
+			double sumSq = 0;
+			long total = 0;
+			for (int i = 0; i < torrentCount; i++) {
+				if (torrentClass[i] == c) {
+					n++;
+					sum += counts[i];
+					sumSq += (double) counts[i] * counts[i];
+					total += counts[i];
+				}
+			}
+			if (n == 0) {
+				continue;
+			}
+			// Jain's fairness index of the per-torrent announce counts, 1.0 = perfectly even
+			double fairness = sumSq == 0 ? 1 : sum * sum / (n * sumSq);
+			LatencyHistogram h = intervals[c];
+			System.out.println(String.format("%-12s %8d %10d %7ds %7ds %7ds %7ds %7ds %9.3f", CLASSES[c], n, total,
+					h.getCount() == 0 ? 0 : h.getValueAtPercentile(0), h.getValueAtPercentile(50),
+					h.getValueAtPercentile(90), h.getValueAtPercentile(99), h.getMax(), fairness));
+		}
+		System.out.println();
+		System.out.println(String.format("peak announces started per %ds check: %d (at +%dmin)",
+				Tracker.TRACKER_UPDATE_INTERVAL / 1000, peakStarted, peakStartedAt / 60000));
+		System.out.println("peak overdue torrents: " + peakOverdue + ", max lateness: " + maxLateness / 1000 + "s");
+	}
+}
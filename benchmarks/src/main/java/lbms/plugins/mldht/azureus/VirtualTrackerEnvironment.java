@@ -0,0 +1,148 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Deterministic, single threaded {@link TrackerEnvironment} with a virtual
+ * clock. Timers, dispatched tasks and "threads" are events in one queue that
+ * {@link #runUntil} executes in time order, advancing the clock as it goes.
+ */
+public class VirtualTrackerEnvironment implements TrackerEnvironment {
+
+	private final class Event implements Comparable<Event>, Cancellable {
+		long			time;
+		final long		seq		= sequence++;
+		final long		period;
+		final Runnable	task;
+		boolean			cancelled;
+
+		Event (long time, long period, Runnable task) {
+			this.time = time;
+			this.period = period;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo (Event o) {
+			int c = Long.compare(time, o.time);
+			return c != 0 ? c : Long.compare(seq, o.seq);
+		}
+
+		@Override
+		public void cancel () {
+			cancelled = true;
+		}
+	}
+
+	private final PriorityQueue<Event>	events		= new PriorityQueue<>();
+	private final Random				random;
+	private long						now;
+	private long						sequence;
+	private long						executed;
+
+	public VirtualTrackerEnvironment (long startTime, long seed) {
+		this.now = startTime;
+		this.random = new Random(seed);
+	}
+
+	@Override
+	public long currentTimeMillis () {
+		return now;
+	}
+
+	@Override
+	public long nanoTime () {
+		return now * 1000000L;
+	}
+
+	@Override
+	public Random getRandom () {
+		return random;
+	}
+
+	@Override
+	public Cancellable scheduleAtFixedRate (String name, long initialDelay, long period, Runnable task) {
+		Event e = new Event(now + initialDelay, period, task);
+		events.add(e);
+		return e;
+	}
+
+	@Override
+	public Cancellable schedule (String name, long delay, Runnable task) {
+		Event e = new Event(now + delay, 0, task);
+		events.add(e);
+		return e;
+	}
+
+	@Override
+	public void dispatch (Runnable task) {
+		events.add(new Event(now, 0, task));
+	}
+
+	@Override
+	public void dispatch (int partition, Runnable task) {
+		events.add(new Event(now, 0, task));
+	}
+
+	@Override
+	public void execute (String name, Runnable task) {
+		events.add(new Event(now, 0, task));
+	}
+
+	@Override
+	public int getDispatchBacklog () {
+		return events.size();
+	}
+
+	@Override
+	public void open () {
+		// no threads
+	}
+
+	@Override
+	public void close () {
+		// no threads, pending events stay queued for runUntil
+	}
+
+	/**
+	 * Runs all events due up to end and leaves the clock at end
+	 */
+	public void runUntil (long end) {
+		Event e;
+		while ((e = events.peek()) != null && e.time <= end) {
+			events.poll();
+			if (e.cancelled) {
+				continue;
+			}
+			now = e.time;
+			e.task.run();
+			executed++;
+			if (e.period > 0 && !e.cancelled) {
+				e.time += e.period;
+				events.add(e);
+			}
+		}
+		now = end;
+	}
+
+	public long getExecutedEvents () {
+		return executed;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java 21 implementation of the threading helpers, packaged under
+ * META-INF/versions/21 of the multi-release jar. Must keep the signatures of
+ * the Java 8 version in src.
+ */
+public final class ThreadSupport {
+
+	/** set to false to keep platform threads on JVMs with virtual threads */
+	public static final String	PROPERTY	= "mldht.virtualThreads";
+
+	private static final boolean	ENABLED	= !"false".equalsIgnoreCase(System.getProperty(PROPERTY));
+
+	private ThreadSupport () {
+	}
+
+	public static boolean hasVirtualThreads () {
+		return ENABLED;
+	}
+
+	/**
+	 * Runs the task on a new virtual thread
+	 *
+	 * @return false if virtual threads are not available, the task was not
+	 *         started
+	 */
+	public static boolean startVirtualThread (String name, Runnable task) {
+		if (!ENABLED) {
+			return false;
+		}
+		Thread.ofVirtual().name(name).start(task);
+		return true;
+	}
+
+	/**
+	 * @return an executor running one task at a time in submission order on a
+	 *         virtual thread, null if virtual threads are not available
+	 */
+	public static ThreadPoolExecutor newSerialExecutor (String name) {
+		if (!ENABLED) {
+			return null;
+		}
+		return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+				Thread.ofVirtual().name(name).factory());
+	}
+}
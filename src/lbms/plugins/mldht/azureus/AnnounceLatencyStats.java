@@ -0,0 +1,117 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+import com.biglybt.pif.download.Download;
+
+/**
+ * Announce latency histograms, separated by torrent class, phase and (for
+ * lookups) DHT type.
+ */
+public class AnnounceLatencyStats {
+
+	public enum TorrentClass {
+		METADATA, INCOMPLETE, SEEDING, SCRAPE_ONLY;
+
+		public static TorrentClass of (Download dl, boolean scrapeOnly) {
+			if (dl.getFlag(Download.FLAG_METADATA_DOWNLOAD)) {
+				return METADATA;
+			}
+			if (scrapeOnly) {
+				return SCRAPE_ONLY;
+			}
+			return dl.isComplete(true) ? SEEDING : INCOMPLETE;
+		}
+	}
+
+	public enum Phase {
+		/** time between becoming due and the announce starting */
+		QUEUE_WAIT("Queue Wait"),
+		/** announce start until the first peer was returned by any lookup */
+		FIRST_PEER("First Peer"),
+		/** announce start until a lookup finished, kept per DHT type */
+		LOOKUP("Lookup"),
+		/** duration of the announce_peer RPCs following a lookup */
+		ANNOUNCE_RPC("Announce RPC"),
+		/** announce start until all lookups have finished */
+		TOTAL("Total");
+
+		public final String	label;
+
+		private Phase (String label) {
+			this.label = label;
+		}
+	}
+
+	private final LatencyHistogram[][]	phases;
+	private final LatencyHistogram[][]	lookups;
+
+	public AnnounceLatencyStats () {
+		int classes = TorrentClass.values().length;
+		phases = new LatencyHistogram[classes][Phase.values().length];
+		lookups = new LatencyHistogram[classes][DHTtype.values().length];
+		for (int i = 0; i < classes; i++) {
+			for (int j = 0; j < phases[i].length; j++) {
+				phases[i][j] = new LatencyHistogram();
+			}
+			for (int j = 0; j < lookups[i].length; j++) {
+				lookups[i][j] = new LatencyHistogram();
+			}
+		}
+	}
+
+	public void record (TorrentClass cls, Phase phase, long nanos) {
+		phases[cls.ordinal()][phase.ordinal()].recordNanos(nanos);
+	}
+
+	public void recordLookup (TorrentClass cls, DHTtype type, long nanos) {
+		lookups[cls.ordinal()][type.ordinal()].recordNanos(nanos);
+		record(cls, Phase.LOOKUP, nanos);
+	}
+
+	public LatencyHistogram getHistogram (TorrentClass cls, Phase phase) {
+		return phases[cls.ordinal()][phase.ordinal()];
+	}
+
+	public LatencyHistogram getLookupHistogram (TorrentClass cls, DHTtype type) {
+		return lookups[cls.ordinal()][type.ordinal()];
+	}
+
+	/**
+	 * @return a new histogram combining all torrent classes
+	 */
+	public LatencyHistogram getHistogram (Phase phase) {
+		LatencyHistogram result = new LatencyHistogram();
+		for (LatencyHistogram[] cls : phases) {
+			result.add(cls[phase.ordinal()]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a new histogram combining the lookups of all torrent classes
+	 */
+	public LatencyHistogram getLookupHistogram (DHTtype type) {
+		LatencyHistogram result = new LatencyHistogram();
+		for (LatencyHistogram[] cls : lookups) {
+			result.add(cls[type.ordinal()]);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import lbms.plugins.mldht.azureus.stats.DHTStatsSnapshot;
+import lbms.plugins.mldht.azureus.stats.StatsPublisher;
+import lbms.plugins.mldht.azureus.stats.StatsSnapshot;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+import com.biglybt.pif.PluginConfig;
+
+/**
+ * Upload budget per DHT type in bytes/s and packets/s.
+ *
+ * The Tracker holds back lower priority announces and scrapes while a budget
+ * is used up; maintenance traffic (bootstrap, refreshes, replies to other
+ * nodes) is never throttled. Usage is the sent rate of the latest published
+ * stats snapshot, i.e. RPCStats.getSentBytesPerSec() and the packet rate
+ * derived from the sent packet counter.
+ */
+public class BandwidthBudget {
+
+	/** KiB/s, suffixed with the DHT type's short name, 0 = unlimited */
+	public static final String	BYTES_PARAM		= "budget.bytes.";
+	/** packets/s, suffixed with the DHT type's short name, 0 = unlimited */
+	public static final String	PACKETS_PARAM	= "budget.packets.";
+
+	private final MlDHTPlugin	plugin;
+
+	public BandwidthBudget (MlDHTPlugin plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * @return bytes/s, 0 if unlimited
+	 */
+	public long getByteLimit (DHTtype type) {
+		return 1024L * Math.max(0, config().getPluginIntParameter(BYTES_PARAM + type.shortName, 0));
+	}
+
+	/**
+	 * @return packets/s, 0 if unlimited
+	 */
+	public long getPacketLimit (DHTtype type) {
+		return Math.max(0, config().getPluginIntParameter(PACKETS_PARAM + type.shortName, 0));
+	}
+
+	public boolean isLimited (DHTtype type) {
+		return getByteLimit(type) > 0 || getPacketLimit(type) > 0;
+	}
+
+	/**
+	 * @return the larger of the used byte and packet budget fractions, 0 if
+	 *         unlimited or no stats have been published yet
+	 */
+	public double getUtilization (DHTtype type) {
+		StatsPublisher publisher = plugin.getStatsPublisher();
+		StatsSnapshot snapshot = publisher == null ? null : publisher.getSnapshot();
+		DHTStatsSnapshot dht = snapshot == null ? null : snapshot.getDHT(type);
+		if (dht == null || !dht.running) {
+			return 0;
+		}
+		double utilization = 0;
+		long bytes = getByteLimit(type);
+		if (bytes > 0) {
+			utilization = Math.max(utilization, dht.sentBytesPerSec / (double) bytes);
+		}
+		long packets = getPacketLimit(type);
+		if (packets > 0) {
+			utilization = Math.max(utilization, dht.sentPacketsPerSec / packets);
+		}
+		return utilization;
+	}
+
+	/**
+	 * @return true if any running DHT has used up its budget, an announce
+	 *         sends lookups on all of them
+	 */
+	public boolean isExhausted () {
+		for (DHTtype type : DHTtype.values()) {
+			if (getUtilization(type) >= 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private PluginConfig config () {
+		return plugin.getPluginInterface().getPluginconfig();
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+import com.biglybt.core.networkmanager.admin.NetworkAdmin;
+
+/**
+ * Immutable copy of the bind addresses configured in the core, taken whenever
+ * the network configuration changes so that the DHT's bind checks don't have to
+ * query NetworkAdmin for every candidate address.
+ *
+ * Also records the routable addresses of the local interfaces, so two
+ * snapshots tell which address families a network change actually affected.
+ */
+public final class BindAddressSnapshot implements Predicate<InetAddress> {
+
+	private final Set<InetAddress>	addresses;
+	private final Set<InetAddress>	localAddresses;
+	private final boolean			hasAnyLocal;
+
+	private BindAddressSnapshot (InetAddress[] bindAddresses, Set<InetAddress> localAddresses) {
+		Set<InetAddress> set = new HashSet<>(Arrays.asList(bindAddresses));
+		boolean any = false;
+		for (InetAddress a : bindAddresses) {
+			if (a.isAnyLocalAddress()) {
+				any = true;
+				break;
+			}
+		}
+		addresses = Collections.unmodifiableSet(set);
+		this.localAddresses = Collections.unmodifiableSet(localAddresses);
+		hasAnyLocal = any;
+	}
+
+	public static BindAddressSnapshot create () {
+		return new BindAddressSnapshot(NetworkAdmin.getSingleton().getAllBindAddresses(true), collectLocalAddresses());
+	}
+
+	/**
+	 * @return addresses of all interfaces that are up, except loopback and
+	 *         link-local ones
+	 */
+	private static Set<InetAddress> collectLocalAddresses () {
+		Set<InetAddress> result = new HashSet<>();
+		try {
+			Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+			while (interfaces != null && interfaces.hasMoreElements()) {
+				NetworkInterface ni = interfaces.nextElement();
+				if (!ni.isUp() || ni.isLoopback()) {
+					continue;
+				}
+				for (InetAddress a : Collections.list(ni.getInetAddresses())) {
+					if (!a.isLinkLocalAddress()) {
+						result.add(a);
+					}
+				}
+			}
+		} catch (SocketException e) {
+			// interfaces changing underneath us, the next change event takes a new snapshot
+		}
+		return result;
+	}
+
+	/**
+	 * when there are no bindings 'all bind addresses' doesn't return both v4+v6
+	 * any addresses, it just returns one - currently match both to this
+	 */
+	@Override
+	public boolean test (InetAddress t) {
+		if (t.isAnyLocalAddress()) {
+			return hasAnyLocal;
+		}
+		return addresses.contains(t);
+	}
+
+	public Set<InetAddress> getAddresses () {
+		return addresses;
+	}
+
+	public Set<InetAddress> getLocalAddresses () {
+		return localAddresses;
+	}
+
+	/**
+	 * @return true if the local address may be used for sockets of the DHT type
+	 *         and is still present on an interface
+	 */
+	public boolean isLocalAddress (DHTtype type, InetAddress address) {
+		return type.PREFERRED_ADDRESS_TYPE.isInstance(address) && localAddresses.contains(address);
+	}
+
+	/**
+	 * @return true if the bind or interface addresses usable by the DHT type
+	 *         differ between the snapshots
+	 */
+	public boolean hasChanged (BindAddressSnapshot previous, DHTtype type) {
+		return !filter(addresses, type).equals(filter(previous.addresses, type))
+				|| !filter(localAddresses, type).equals(filter(previous.localAddresses, type));
+	}
+
+	/**
+	 * @return true if an interface address usable by the DHT type in the
+	 *         previous snapshot is gone, addresses only being added doesn't
+	 *         invalidate a source address already in use
+	 */
+	public boolean hasLostAddress (BindAddressSnapshot previous, DHTtype type) {
+		return !localAddresses.containsAll(filter(previous.localAddresses, type));
+	}
+
+	private static Set<InetAddress> filter (Set<InetAddress> addresses, DHTtype type) {
+		Set<InetAddress> result = new HashSet<>();
+		for (InetAddress a : addresses) {
+			if (type.PREFERRED_ADDRESS_TYPE.isInstance(a)) {
+				result.add(a);
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public boolean equals (Object obj) {
+		return obj instanceof BindAddressSnapshot && ((BindAddressSnapshot) obj).addresses.equals(addresses)
+				&& ((BindAddressSnapshot) obj).localAddresses.equals(localAddresses);
+	}
+
+	@Override
+	public int hashCode () {
+		return addresses.hashCode();
+	}
+
+	@Override
+	public String toString () {
+		return addresses.toString();
+	}
+}
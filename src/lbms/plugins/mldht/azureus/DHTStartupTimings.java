@@ -0,0 +1,106 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-phase timings of a single DHT start, in milliseconds.
+ *
+ * Phases are recorded by the threads starting and running the DHT as the
+ * time elapsed since the start when they ended, and read by the UI as the
+ * duration from the end of the preceding phase. A phase that has not
+ * completed (yet) reports -1.
+ */
+public class DHTStartupTimings {
+
+	public enum Phase {
+		/** building the DHTConfiguration */
+		CONFIG("config"),
+		/** DHT.start(), which loads the persisted routing table */
+		TABLE_LOAD("table load"),
+		/** until the first RPC server is bound */
+		BIND("bind"),
+		/** until the DHT reports itself as running */
+		BOOTSTRAP("bootstrap");
+
+		public final String	label;
+
+		private Phase (String label) {
+			this.label = label;
+		}
+	}
+
+	private final long				started	= System.currentTimeMillis();
+	/** elapsed ms at the end of each phase */
+	private final AtomicLongArray	ends	= new AtomicLongArray(Phase.values().length);
+
+	public DHTStartupTimings () {
+		for (int i = 0; i < ends.length(); i++) {
+			ends.set(i, -1);
+		}
+	}
+
+	/**
+	 * @param elapsed ms since the start of the DHT when the phase ended
+	 */
+	public void record (Phase phase, long elapsed) {
+		ends.compareAndSet(phase.ordinal(), -1, elapsed);
+	}
+
+	/**
+	 * @return the duration of the phase, measured from the end of the last
+	 *         completed phase before it, or -1 if it has not completed
+	 */
+	public long get (Phase phase) {
+		long end = ends.get(phase.ordinal());
+		if (end < 0) {
+			return -1;
+		}
+		long begin = 0;
+		for (int i = phase.ordinal() - 1; i >= 0; i--) {
+			long previous = ends.get(i);
+			if (previous >= 0) {
+				begin = previous;
+				break;
+			}
+		}
+		// the server can bind after the DHT already reported running
+		return Math.max(0, end - begin);
+	}
+
+	public long getStartTime () {
+		return started;
+	}
+
+	public boolean isComplete () {
+		return get(Phase.BOOTSTRAP) >= 0;
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder sb = new StringBuilder();
+		for (Phase p : Phase.values()) {
+			long t = get(p);
+			if (sb.length() > 0) {
+				sb.append(", ");
+			}
+			sb.append(p.label).append(' ').append(t < 0 ? "-" : (t + "ms"));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.biglybt.pif.download.Download;
+import com.biglybt.pif.ui.tables.TableCell;
+import com.biglybt.pif.ui.tables.TableCellRefreshListener;
+import com.biglybt.pif.ui.tables.TableColumn;
+import com.biglybt.pif.ui.tables.TableManager;
+import com.biglybt.pif.utils.Formatters;
+
+/**
+ * Per-torrent DHT columns for the My Torrents tables.
+ *
+ * Cells only read the volatile {@link TrackedTorrent.Stats} snapshot, the
+ * Tracker lock is never taken while rendering. All columns are hidden by
+ * default.
+ */
+public class DHTTableColumns {
+
+	private static final String[]	TABLES	= { TableManager.TABLE_MYTORRENTS_INCOMPLETE,
+			TableManager.TABLE_MYTORRENTS_COMPLETE };
+
+	private final MlDHTPlugin		plugin;
+	private final Formatters		formatters;
+	private final List<TableColumn>	columns	= new ArrayList<>();
+
+	public DHTTableColumns (MlDHTPlugin plugin) {
+		this.plugin = plugin;
+		this.formatters = plugin.getPluginInterface().getUtilities().getFormatters();
+	}
+
+	public void register (TableManager tableManager) {
+		for (String table : TABLES) {
+			add(tableManager, table, "mldht.lastAnnounce", TableColumn.ALIGN_TRAIL, 120, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				long time = s == null ? 0 : s.lastAnnounceStart;
+				if (cell.setSortValue(time) || !cell.isValid()) {
+					cell.setText(time == 0 ? "" : formatters.formatDate(time));
+				}
+			});
+			add(tableManager, table, "mldht.nextAnnounce", TableColumn.ALIGN_TRAIL, 70, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				long next = s == null || s.nextAnnounce == 0 ? Long.MAX_VALUE : s.nextAnnounce;
+				cell.setSortValue(next);
+				// the remaining time changes on every refresh
+				cell.setText(next == Long.MAX_VALUE ? "" : formatters.formatTimeFromSeconds(
+						Math.max(0, (next - System.currentTimeMillis()) / 1000)));
+			});
+			add(tableManager, table, "mldht.peers", TableColumn.ALIGN_TRAIL, 50, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				long peers = s == null || s.lastDuration < 0 ? -1 : s.peersFound;
+				if (cell.setSortValue(peers) || !cell.isValid()) {
+					cell.setText(peers < 0 ? "" : String.valueOf(peers));
+				}
+			});
+			add(tableManager, table, "mldht.scrape", TableColumn.ALIGN_CENTER, 70, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				boolean known = s != null && s.lastDuration >= 0;
+				long sort = known ? ((long) s.scrapeSeeds << 32) + s.scrapePeers : -1;
+				if (cell.setSortValue(sort) || !cell.isValid()) {
+					cell.setText(known ? s.scrapeSeeds + " / " + s.scrapePeers : "");
+				}
+			});
+			add(tableManager, table, "mldht.duration", TableColumn.ALIGN_TRAIL, 60, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				long duration = s == null ? -1 : s.lastDuration;
+				if (cell.setSortValue(duration) || !cell.isValid()) {
+					cell.setText(duration < 0 ? "" : String.format("%.1fs", duration / 1000.0));
+				}
+			});
+			add(tableManager, table, "mldht.announceCount", TableColumn.ALIGN_TRAIL, 50, (cell) -> {
+				TrackedTorrent.Stats s = getStats(cell);
+				long count = s == null ? 0 : s.announceCount;
+				if (cell.setSortValue(count) || !cell.isValid()) {
+					cell.setText(String.valueOf(count));
+				}
+			});
+		}
+	}
+
+	public void unregister () {
+		for (TableColumn column : columns) {
+			try {
+				column.remove();
+			} catch (Throwable e) {
+				// UI already gone
+			}
+		}
+		columns.clear();
+	}
+
+	private void add (TableManager tableManager, String table, String name, int alignment, int width,
+			Consumer<TableCell> refresher) {
+		TableColumn column = tableManager.createColumn(table, name);
+		column.initialize(alignment, TableColumn.POSITION_INVISIBLE, width, TableColumn.INTERVAL_LIVE);
+		column.setType(TableColumn.TYPE_TEXT_ONLY);
+		column.addCellRefreshListener(new TableCellRefreshListener() {
+			@Override
+			public void refresh (TableCell cell) {
+				refresher.accept(cell);
+			}
+		});
+		tableManager.addColumn(column);
+		columns.add(column);
+	}
+
+	private TrackedTorrent.Stats getStats (TableCell cell) {
+		Object ds = cell.getDataSource();
+		Tracker tracker = plugin.getTracker();
+		if (!(ds instanceof Download) || tracker == null) {
+			return null;
+		}
+		TrackedTorrent t = tracker.getTrackedTorrent((Download) ds);
+		return t == null ? null : t.getStats();
+	}
+}
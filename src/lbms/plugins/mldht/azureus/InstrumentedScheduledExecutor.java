@@ -0,0 +1,294 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delegating {@link ScheduledExecutorService} that counts pending and running
+ * tasks and records task run times, for the profiler view.
+ *
+ * Pending are one-shot tasks that have been submitted (including delayed
+ * ones) but not started yet, periodic tasks are counted separately. For
+ * one-shot tasks the start lag (actual start minus the time the task was due)
+ * is recorded as well, it is the queueing delay caused by other tasks.
+ */
+public class InstrumentedScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final String					name;
+	private final ScheduledExecutorService	delegate;
+
+	private final AtomicInteger				pending		= new AtomicInteger();
+	private final AtomicInteger				running		= new AtomicInteger();
+	private final AtomicInteger				periodic	= new AtomicInteger();
+	private final AtomicLong				executed	= new AtomicLong();
+	private final LatencyHistogram			runTimes	= new LatencyHistogram();
+	private final LatencyHistogram			startLag	= new LatencyHistogram();
+
+	public InstrumentedScheduledExecutor (ScheduledExecutorService delegate) {
+		this("", delegate);
+	}
+
+	public InstrumentedScheduledExecutor (String name, ScheduledExecutorService delegate) {
+		this.name = name;
+		this.delegate = delegate;
+	}
+
+	private final class Task implements Runnable {
+		final Runnable		task;
+		final boolean		isPeriodic;
+		final long			due;
+		final AtomicBoolean	started		= new AtomicBoolean();
+
+		Task (Runnable task, boolean isPeriodic, long delayNanos) {
+			this.task = task;
+			this.isPeriodic = isPeriodic;
+			this.due = System.nanoTime() + Math.max(0, delayNanos);
+			(isPeriodic ? periodic : pending).incrementAndGet();
+		}
+
+		@Override
+		public void run () {
+			long start = begin();
+			try {
+				task.run();
+			} catch (RuntimeException | Error e) {
+				if (isPeriodic) {
+					// the delegate won't run it again
+					cancelled();
+				}
+				throw e;
+			} finally {
+				end(start);
+			}
+		}
+
+		long begin () {
+			long now = System.nanoTime();
+			if (!isPeriodic && started.compareAndSet(false, true)) {
+				pending.decrementAndGet();
+				startLag.recordNanos(now - due);
+			}
+			running.incrementAndGet();
+			return now;
+		}
+
+		void end (long start) {
+			running.decrementAndGet();
+			executed.incrementAndGet();
+			runTimes.recordNanos(System.nanoTime() - start);
+		}
+
+		/**
+		 * Takes the task out of the counts when it will never run (again)
+		 */
+		void cancelled () {
+			if (isPeriodic) {
+				if (started.compareAndSet(false, true)) {
+					periodic.decrementAndGet();
+				}
+			} else if (started.compareAndSet(false, true)) {
+				pending.decrementAndGet();
+			}
+		}
+	}
+
+	private final class Future<V> implements ScheduledFuture<V> {
+		final ScheduledFuture<V>	future;
+		final Task					task;
+
+		Future (ScheduledFuture<V> future, Task task) {
+			this.future = future;
+			this.task = task;
+		}
+
+		@Override
+		public long getDelay (TimeUnit unit) {
+			return future.getDelay(unit);
+		}
+
+		@Override
+		public int compareTo (Delayed o) {
+			return future.compareTo(o instanceof Future ? ((Future<?>) o).future : o);
+		}
+
+		@Override
+		public boolean cancel (boolean mayInterruptIfRunning) {
+			boolean cancelled = future.cancel(mayInterruptIfRunning);
+			if (cancelled) {
+				task.cancelled();
+			}
+			return cancelled;
+		}
+
+		@Override
+		public boolean isCancelled () {
+			return future.isCancelled();
+		}
+
+		@Override
+		public boolean isDone () {
+			return future.isDone();
+		}
+
+		@Override
+		public V get () throws InterruptedException, ExecutionException {
+			return future.get();
+		}
+
+		@Override
+		public V get (long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			return future.get(timeout, unit);
+		}
+	}
+
+	@Override
+	public void execute (Runnable command) {
+		Task task = new Task(command, false, 0);
+		try {
+			delegate.execute(task);
+		} catch (RuntimeException e) {
+			task.cancelled();
+			throw e;
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule (Runnable command, long delay, TimeUnit unit) {
+		Task task = new Task(command, false, unit.toNanos(delay));
+		try {
+			return new Future<>(delegate.schedule(task, delay, unit), task);
+		} catch (RuntimeException e) {
+			task.cancelled();
+			throw e;
+		}
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule (Callable<V> callable, long delay, TimeUnit unit) {
+		Task task = new Task(null, false, unit.toNanos(delay));
+		try {
+			return new Future<>(delegate.schedule(() -> {
+				long start = task.begin();
+				try {
+					return callable.call();
+				} finally {
+					task.end(start);
+				}
+			}, delay, unit), task);
+		} catch (RuntimeException e) {
+			task.cancelled();
+			throw e;
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate (Runnable command, long initialDelay, long period, TimeUnit unit) {
+		Task task = new Task(command, true, unit.toNanos(initialDelay));
+		try {
+			return new Future<>(delegate.scheduleAtFixedRate(task, initialDelay, period, unit), task);
+		} catch (RuntimeException e) {
+			task.cancelled();
+			throw e;
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay (Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		Task task = new Task(command, true, unit.toNanos(initialDelay));
+		try {
+			return new Future<>(delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit), task);
+		} catch (RuntimeException e) {
+			task.cancelled();
+			throw e;
+		}
+	}
+
+	@Override
+	public void shutdown () {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow () {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown () {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated () {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination (long timeout, TimeUnit unit) throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+
+	public String getName () {
+		return name;
+	}
+
+	/**
+	 * @return one-shot tasks submitted but not started yet
+	 */
+	public int getPendingCount () {
+		return pending.get();
+	}
+
+	public int getRunningCount () {
+		return running.get();
+	}
+
+	public int getPeriodicCount () {
+		return periodic.get();
+	}
+
+	public long getExecutedCount () {
+		return executed.get();
+	}
+
+	/**
+	 * @return run times of all executions (microseconds)
+	 */
+	public LatencyHistogram getRunTimes () {
+		return runTimes;
+	}
+
+	/**
+	 * @return how late one-shot tasks started compared to when they were due
+	 *         (microseconds)
+	 */
+	public LatencyHistogram getStartLag () {
+		return startLag;
+	}
+}
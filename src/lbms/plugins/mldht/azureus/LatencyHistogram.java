@@ -0,0 +1,153 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory, lock-free latency histogram in the spirit of HdrHistogram.
+ *
+ * Values (microseconds) below 64 are counted exactly, larger values go into
+ * log-linear buckets of 32 sub-buckets per power of two, i.e. a relative error
+ * of at most ~3%. Values above {@link #MAX_VALUE} are clamped.
+ */
+public class LatencyHistogram {
+
+	private static final int	SUB_BUCKET_BITS		= 5;
+	private static final int	SUB_BUCKETS			= 1 << SUB_BUCKET_BITS;
+	private static final int	LINEAR_LIMIT		= SUB_BUCKETS * 2;
+	private static final int	MAX_EXPONENT		= 40;
+
+	/** ~25.4 days in microseconds */
+	public static final long	MAX_VALUE			= (1L << (MAX_EXPONENT + 1)) - 1;
+
+	private static final int	BUCKET_COUNT		= LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray	counts			= new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong		totalCount		= new AtomicLong();
+	private final AtomicLong		totalSum		= new AtomicLong();
+	private final AtomicLong		max				= new AtomicLong();
+
+	public void record (long micros) {
+		if (micros < 0) {
+			return;
+		}
+		if (micros > MAX_VALUE) {
+			micros = MAX_VALUE;
+		}
+		counts.incrementAndGet(indexOf(micros));
+		totalCount.incrementAndGet();
+		totalSum.addAndGet(micros);
+		long m;
+		while (micros > (m = max.get()) && !max.compareAndSet(m, micros)) {
+			// retry
+		}
+	}
+
+	public void recordNanos (long nanos) {
+		record(nanos / 1000);
+	}
+
+	static int indexOf (long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the value in the middle of the bucket's range
+	 */
+	static long valueOf (int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int k = index - LINEAR_LIMIT;
+		int exponent = k / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		long sub = (k % SUB_BUCKETS) + SUB_BUCKETS;
+		return (sub << shift) + ((1L << shift) >> 1);
+	}
+
+	public long getCount () {
+		return totalCount.get();
+	}
+
+	/**
+	 * @return sum of all recorded values in microseconds, exact unlike the
+	 *         percentiles
+	 */
+	public long getSum () {
+		return totalSum.get();
+	}
+
+	public long getMax () {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile 0-100
+	 * @return the value in microseconds, 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile (double percentile) {
+		long total = totalCount.get();
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= target) {
+				return Math.min(valueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Adds the counts of other to this histogram
+	 */
+	public void add (LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalSum.addAndGet(other.totalSum.get());
+		long m;
+		long om = other.max.get();
+		while (om > (m = max.get()) && !max.compareAndSet(m, om)) {
+			// retry
+		}
+	}
+
+	public void reset () {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		totalSum.set(0);
+		max.set(0);
+	}
+}
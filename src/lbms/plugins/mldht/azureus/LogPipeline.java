@@ -0,0 +1,235 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+
+import com.biglybt.core.util.AEThread2;
+import com.biglybt.pif.logging.LoggerChannel;
+
+/**
+ * Decouples DHT logging from the threads producing it.
+ *
+ * Messages are put into a fixed size ring buffer (the oldest entries are
+ * overwritten when it is full) and forwarded to the logger channel by a
+ * background thread. Text destined for the log view is collected and appended
+ * in one go per batch.
+ */
+public class LogPipeline {
+
+	private static final int			CAPACITY			= 4096;
+	private static final int			BATCH_INTERVAL		= 250;
+	private static final int			MAX_UI_BATCH		= 64 * 1024;
+	private static final int			MAX_TRACE_LINES		= 12;
+
+	/** the pipeline of the loaded plugin instance, credited by {@link #shouldLog} */
+	private static volatile LogPipeline	active;
+
+	private final LoggerChannel			channel;
+	private final Consumer<String>		uiSink;
+
+	private final Object[]				messages			= new Object[CAPACITY];
+	private int							head;
+	private int							size;
+
+	private final StringBuilder			uiBuffer			= new StringBuilder();
+
+	private final AtomicLong			dropped				= new AtomicLong();
+	private final AtomicLong			suppressed			= new AtomicLong();
+
+	private volatile boolean			destroyed;
+
+	/**
+	 * @param channel the channel messages are forwarded to
+	 * @param uiSink receives batched text appended via {@link #appendToUI(String)}
+	 */
+	public LogPipeline (LoggerChannel channel, Consumer<String> uiSink) {
+		this.channel = channel;
+		this.uiSink = uiSink;
+		active = this;
+
+		new AEThread2("mlDHT:log") {
+			@Override
+			public void run () {
+				process();
+			}
+		}.start();
+	}
+
+	/**
+	 * Check before building a log message, messages that are below the current
+	 * log level are counted as suppressed by the active pipeline.
+	 */
+	public static boolean shouldLog (LogLevel level) {
+		if (level.compareTo(DHT.getLogLevel()) <= 0) {
+			return true;
+		}
+		LogPipeline pipeline = active;
+		if (pipeline != null) {
+			pipeline.suppressed.incrementAndGet();
+		}
+		return false;
+	}
+
+	public void log (String message, LogLevel level) {
+		if (shouldLog(level)) {
+			enqueue(message);
+		}
+	}
+
+	public void log (Throwable e) {
+		enqueue(e);
+	}
+
+	private void enqueue (Object o) {
+		if (destroyed) {
+			return;
+		}
+		synchronized (messages) {
+			if (size == CAPACITY) {
+				head = (head + 1) % CAPACITY;
+				size--;
+				dropped.incrementAndGet();
+			}
+			messages[(head + size) % CAPACITY] = o;
+			size++;
+		}
+	}
+
+	/**
+	 * Called by the logger channel listener, whatever is appended here is
+	 * passed to the ui sink with the next batch.
+	 */
+	public void appendToUI (String text) {
+		synchronized (uiBuffer) {
+			if (uiBuffer.length() + text.length() > MAX_UI_BATCH) {
+				dropped.incrementAndGet();
+				return;
+			}
+			uiBuffer.append(text);
+		}
+	}
+
+	private void process () {
+		Object[] batch = new Object[CAPACITY];
+
+		while (!destroyed) {
+			try {
+				Thread.sleep(BATCH_INTERVAL);
+			} catch (InterruptedException e) {
+				// ignore
+			}
+
+			int n;
+			synchronized (messages) {
+				n = size;
+				for (int i = 0; i < n; i++) {
+					int idx = (head + i) % CAPACITY;
+					batch[i] = messages[idx];
+					messages[idx] = null;
+				}
+				head = (head + n) % CAPACITY;
+				size = 0;
+			}
+
+			for (int i = 0; i < n; i++) {
+				Object o = batch[i];
+				batch[i] = null;
+				try {
+					if (o instanceof Throwable) {
+						channel.log((Throwable) o);
+					} else {
+						channel.log((String) o);
+					}
+				} catch (Throwable e) {
+					// nothing sensible to do with a failing logger
+				}
+			}
+
+			String text = null;
+			synchronized (uiBuffer) {
+				if (uiBuffer.length() > 0) {
+					text = uiBuffer.toString();
+					uiBuffer.setLength(0);
+				}
+			}
+			if (text != null) {
+				try {
+					uiSink.accept(text);
+				} catch (Throwable e) {
+					// view may have been destroyed
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a stack trace trimmed to the first few frames
+	 */
+	public static String formatThrowable (Throwable error) {
+		StringBuilder sb = new StringBuilder();
+		for (Throwable t = error; t != null; t = t.getCause()) {
+			sb.append(t == error ? "" : "Caused by: ").append(t).append('\n');
+			StackTraceElement[] trace = t.getStackTrace();
+			int lines = Math.min(trace.length, MAX_TRACE_LINES);
+			for (int i = 0; i < lines; i++) {
+				sb.append("\tat ").append(trace[i]).append('\n');
+			}
+			if (lines < trace.length) {
+				sb.append("\t... ").append(trace.length - lines).append(" more\n");
+			}
+			if (t.getCause() == t) {
+				break;
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return number of messages lost because a buffer was full
+	 */
+	public long getDroppedCount () {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of messages waiting to be forwarded
+	 */
+	public int getBacklog () {
+		synchronized (messages) {
+			return size;
+		}
+	}
+
+	/**
+	 * @return number of messages not built or not forwarded due to the log level
+	 */
+	public long getSuppressedCount () {
+		return suppressed.get();
+	}
+
+	public void destroy () {
+		destroyed = true;
+		if (active == this) {
+			active = null;
+		}
+	}
+}
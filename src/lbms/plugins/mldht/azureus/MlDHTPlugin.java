@@ -17,26 +17,34 @@
 package lbms.plugins.mldht.azureus;
 
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.net.InetAddress;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
 
 import the8472.utils.concurrent.NonblockingScheduledExecutor;
 
 import lbms.plugins.mldht.DHTConfiguration;
+import lbms.plugins.mldht.azureus.stats.StatsHttpServer;
+import lbms.plugins.mldht.azureus.stats.StatsPublisher;
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHTConstants;
 import lbms.plugins.mldht.kad.DHTLogger;
+import lbms.plugins.mldht.kad.DHTStatus;
+import lbms.plugins.mldht.kad.DHTStatusListener;
 import lbms.plugins.mldht.kad.RPCServerManager;
 import lbms.plugins.mldht.kad.DHT.DHTtype;
 import lbms.plugins.mldht.kad.DHT.IncomingMessageListener;
@@ -46,8 +54,10 @@ import lbms.plugins.mldht.kad.messages.MessageBase.Type;
 
 import com.biglybt.core.util.AERunnable;
 import com.biglybt.core.util.AESemaphore;
+import com.biglybt.core.util.AEThread2;
 import com.biglybt.core.util.AsyncDispatcher;
 import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.SystemTime;
 import com.biglybt.pif.PluginException;
 import com.biglybt.pif.PluginInterface;
 import com.biglybt.pif.PluginListener;
@@ -87,9 +97,15 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 
 	private BasicPluginViewModel	view_model;
 	private Logger					logger;
+	/** Tracker orchestration, stats publishing and other light plugin work */
 	ScheduledExecutorService		executor;
+	private final Map<DHTtype, InstrumentedScheduledExecutor>	dhtExecutors	= new EnumMap<>(DHTtype.class);
 	private LoggerChannel			logChannel;
 	private LoggerChannelListener	logListener;
+	private LogPipeline				logPipeline;
+	private StatsPublisher			statsPublisher;
+	private StatsHttpServer			statsServer;
+	private DHTTableColumns			tableColumns;
 	private UIManagerListener		uiListener;
 
 	private LocaleUtilities			locale_utils;
@@ -100,6 +116,14 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 
 	private volatile boolean		unloaded;
 	
+	private static final int		NETWORK_CHANGE_DEBOUNCE	= 2000;
+	private static final int		LOG_AREA_MAX_SIZE		= 256*1024;
+	private static final int		MAX_DHT_THREADS			= 16;
+	
+	private volatile BindAddressSnapshot	bindAddresses;
+	private volatile BindAddressSnapshot	reconciledAddresses;	// what the last rebind was based on
+	private ScheduledFuture<?>				bindCheckEvent;
+	
 	private UIHelper				uiHelper;
 
 	private Object					mlDHTProvider;
@@ -151,6 +175,17 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 				"mldht.showStatusEntry", true);
 		config_model.addBooleanParameter2("multihoming", "mldht.multihoming", false);
 		config_model.addBooleanParameter2("multihoming6", "mldht.multihoming6", true);
+		config_model.addBooleanParameter2("journal.enable", "mldht.journal.enable", false);
+		config_model.addBooleanParameter2("recorder.enable", "mldht.recorder.enable", false);
+		config_model.addBooleanParameter2("stats.http.enable", "mldht.stats.http.enable", false);
+		config_model.addIntParameter2("stats.http.port", "mldht.stats.http.port", StatsHttpServer.DEFAULT_PORT);
+		config_model.addIntParameter2("executor.threads", "mldht.executor.threads", 0);
+		for (DHTtype type : DHTtype.values()) {
+			config_model.addIntParameter2(BandwidthBudget.BYTES_PARAM + type.shortName,
+					("mldht.budget.bytes." + type.shortName).toLowerCase(), 0);
+			config_model.addIntParameter2(BandwidthBudget.PACKETS_PARAM + type.shortName,
+					("mldht.budget.packets." + type.shortName).toLowerCase(), 0);
+		}
 
 		view_model = ui_manager.createBasicPluginViewModel("Mainline DHT Log");
 
@@ -162,27 +197,23 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 		logger = pluginInterface.getLogger();
 		logChannel = logger.getTimeStampedChannel("Mainline DHT");
 
+		view_model.getLogArea().setMaximumSize(LOG_AREA_MAX_SIZE);
+
+		logPipeline = new LogPipeline(logChannel, text -> view_model.getLogArea().appendText(text));
+
 		logListener = new LoggerChannelListener() {
 			@Override
 			public void messageLogged (int type, String content) {
-				view_model.getLogArea().appendText(content + "\n");
+				logPipeline.appendToUI(content + "\n");
 			}
 
 			@Override
 			public void messageLogged (String str, Throwable error) {
 				if (str.length() > 0) {
-					view_model.getLogArea().appendText(str + "\n");
+					logPipeline.appendToUI(str + "\n");
 				}
 
-				StringWriter sw = new StringWriter();
-
-				PrintWriter pw = new PrintWriter(sw);
-
-				error.printStackTrace(pw);
-
-				pw.flush();
-
-				view_model.getLogArea().appendText(sw.toString() + "\n");
+				logPipeline.appendToUI(LogPipeline.formatThrowable(error) + "\n");
 			}
 		};
 
@@ -198,13 +229,23 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 			parsedVersion = Integer.parseInt(version);
 		}
 		
-		executor = new NonblockingScheduledExecutor("mldht plugin", 2, new Thread.UncaughtExceptionHandler() {
+		Thread.UncaughtExceptionHandler exceptionHandler = new Thread.UncaughtExceptionHandler() {
 			@Override
 			public void uncaughtException(Thread t, Throwable e) {
-				// TODO Auto-generated method stub
 				logChannel.log(e);
 			}
-		});
+		};
+
+		// each DHT gets its own workers so a busy IPv4 instance can't delay IPv6
+		// maintenance, the tracker only schedules and needs a single thread
+		int dhtThreads = getDHTThreadCount(pluginInterface.getPluginconfig().getPluginIntParameter("executor.threads", 0));
+		for (DHTtype type : DHTtype.values()) {
+			String name = "mldht " + type.shortName;
+			dhtExecutors.put(type, new InstrumentedScheduledExecutor(name,
+					new NonblockingScheduledExecutor(name, dhtThreads, exceptionHandler)));
+		}
+		executor = new InstrumentedScheduledExecutor("mldht tracker",
+				new NonblockingScheduledExecutor("mldht tracker", 1, exceptionHandler));
 	
 
 		dhts = new HashMap<>();
@@ -233,7 +274,7 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 		};
 				
 		listDHTs.forEach(d -> {
-			d.setScheduler(executor);
+			d.setScheduler(dhtExecutors.get(d.getType()));
 			d.addSiblings(listDHTs);
 			d.addIncomingMessageListener(responseListener);
 		});
@@ -247,7 +288,7 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 			 */
 			@Override
 			public void log (String message, LogLevel l ) {
-				logChannel.log(message);
+				logPipeline.log(message, l);
 			}
 
 			/*
@@ -260,7 +301,7 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 				if ( e instanceof IOException ) {
 					
 				}else{
-					logChannel.log(e);
+					logPipeline.log(e);
 				}
 			}
 		});
@@ -305,6 +346,21 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 
 		tracker = new Tracker(this);
 
+		statsPublisher = new StatsPublisher(this);
+		statsPublisher.start(executor);
+
+		if (pluginInterface.getPluginconfig().getPluginBooleanParameter("stats.http.enable", false)) {
+			int port = pluginInterface.getPluginconfig().getPluginIntParameter("stats.http.port", StatsHttpServer.DEFAULT_PORT);
+			try {
+				statsServer = new StatsHttpServer(statsPublisher);
+				statsServer.start(port);
+				logChannel.log("Stats endpoint listening on 127.0.0.1:" + port);
+			} catch (Throwable e) {
+				statsServer = null;
+				logChannel.log("Could not start stats endpoint on port " + port, e);
+			}
+		}
+
 		uiListener = new UIManagerListener() {
 			/*
 			 * (non-Javadoc)
@@ -393,7 +449,12 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 
 		incAnnounceItem.addListener(announceItemListener);
 		comAnnounceItem.addListener(announceItemListener);
+
+		tableColumns = new DHTTableColumns(this);
+		tableColumns.register(ui_manager.getTableManager());
 		
+		// baseline to tell which address families the first network change affects
+		bindAddresses = reconciledAddresses = BindAddressSnapshot.create();
 		NetworkAdmin.getSingleton().addPropertyChangeListener(this);
 
 		//must be at the end because on update you get a synchronous callback
@@ -417,13 +478,57 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 	 * @return the dht
 	 */
 	public DHT getDHT (DHT.DHTtype type) {
-		return dhts.get(type);
+		// null before initialization
+		Map<DHTtype, DHT> d = dhts;
+		return d == null ? null : d.get(type);
 	}
 
 	public Tracker getTracker () {
 		return tracker;
 	}
 
+	public LogPipeline getLogPipeline () {
+		return logPipeline;
+	}
+
+	/**
+	 * @return number of start/stop tasks waiting on the plugin's dispatcher
+	 */
+	public int getDispatcherBacklog () {
+		return dispatcher.getQueueSize();
+	}
+
+	/**
+	 * @return the per DHT executors followed by the tracker executor, empty
+	 *         before initialisation
+	 */
+	public List<InstrumentedScheduledExecutor> getExecutors () {
+		List<InstrumentedScheduledExecutor> result = new ArrayList<>(dhtExecutors.values());
+		if (executor instanceof InstrumentedScheduledExecutor) {
+			result.add((InstrumentedScheduledExecutor) executor);
+		}
+		return result;
+	}
+
+	/**
+	 * @param configured 0 for automatic sizing
+	 * @return worker threads per DHT instance, half the cores but at most 4
+	 *         unless configured otherwise
+	 */
+	static int getDHTThreadCount (int configured) {
+		if (configured > 0) {
+			return Math.min(configured, MAX_DHT_THREADS);
+		}
+		return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	 * @return the publisher of periodic stats snapshots, null before initialisation
+	 */
+	public StatsPublisher getStatsPublisher () {
+		return statsPublisher;
+	}
+
 	/**
 	 * @return the logger
 	 */
@@ -480,13 +585,43 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 		unloaded = true;
 		
 		NetworkAdmin.getSingleton().removePropertyChangeListener(this);
+		
+		synchronized( this ){
+			if ( bindCheckEvent != null ){
+				bindCheckEvent.cancel( false );
+				bindCheckEvent = null;
+			}
+		}
 
 		if (uiHelper != null) {
 			uiHelper.onPluginUnload();
 		}
 
+		if ( tableColumns != null ){
+			tableColumns.unregister();
+			tableColumns = null;
+		}
+
 		stopDHT();
 
+		if ( statsServer != null ){
+			statsServer.stop();
+			statsServer = null;
+		}
+
+		if ( statsPublisher != null ){
+			statsPublisher.stop();
+		}
+
+			// DHTs, tracker and publisher are stopped, release their worker threads
+
+		for ( InstrumentedScheduledExecutor e : getExecutors()){
+			e.shutdownNow();
+		}
+		dhtExecutors.clear();
+
+		TrackerEvents.unregister();
+
 		if ( pluginInterface != null ){
 			try {
 				pluginInterface.getMainlineDHTManager().setProvider(null);
@@ -512,6 +647,11 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 			
 			logChannel.removeListener(logListener);
 		}
+		
+		if ( logPipeline != null ){
+			
+			logPipeline.destroy();
+		}
 			
 		//DHT.initStatics();	// reset in case plugin class isn't unloaded (happend when bundled)
 		
@@ -577,6 +717,13 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 	
 	private AsyncDispatcher	dispatcher = new AsyncDispatcher( "MLDHT:disp", 2500 );
 	
+		// how long the dispatcher waits for all DHT types to come up before moving on, stragglers
+		// keep starting in the background and become available to the tracker when done
+	
+	private static final int	STARTUP_DEADLINE		= 60*1000;
+	
+	private Map<DHTtype, DHTStartupTimings>	startupTimings = new ConcurrentHashMap<>();
+	
 	public void startDHT ( boolean initial ) {
 		
 		dispatcher.dispatch(
@@ -600,98 +747,229 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 						
 					view_model.getStatus().setText("Initializing");
 					
-					for (Map.Entry<DHTtype, DHT> e : dhts.entrySet()) {
+					List<DHTtype> types = new ArrayList<>();
 					
-						try{
-							DHTtype type = e.getKey();
-							
-							if ( initial && !pluginInterface.getPluginconfig().getPluginBooleanParameter( "autostart." + type.shortName )){
-								
-								continue;
-							}
+					for ( DHTtype type: dhts.keySet()){
+						
+						if ( initial && !pluginInterface.getPluginconfig().getPluginBooleanParameter( "autostart." + type.shortName )){
 							
-							DHTConfiguration config = new DHTConfiguration() {
-								@Override
-								public boolean noRouterBootstrap() {
-									return pluginInterface.getPluginconfig()
-											.getPluginBooleanParameter(
-													"onlyPeerBootstrap");
-								}
-	
-								@Override
-								public boolean isPersistingID() {
-									return pluginInterface.getPluginconfig().getPluginBooleanParameter("alwaysRestoreID");
-								}
-	
-								@Override
-								public Path getStoragePath() {
-									return pluginInterface.getPluginconfig().getPluginUserFile("tmp.tmp").getParentFile().toPath();
-								}
-	
-								@Override
-								public int getListeningPort() {
-									return pluginInterface.getPluginconfig().getPluginIntParameter("port");
-								}
-	
-								@Override
-								public boolean allowMultiHoming() {
-									return pluginInterface.getPluginconfig().getPluginBooleanParameter(type == DHTtype.IPV4_DHT ? "multihoming" : "multihoming6");
-								}
-								
-								public Predicate<InetAddress> filterBindAddress() {
-									return( new Predicate<InetAddress>() {
-										@Override
-										public boolean test(InetAddress t) {
-											InetAddress[] allBindAddresses = NetworkAdmin.getSingleton().getAllBindAddresses(true);
-										
-											boolean	result = false;
-											
-												// when there are no bindings 'all bind addresses' doesn't return both v4+v6 any addresses, it just returns one
-												// currently match both to this, if a user requires,
-											if ( t.isAnyLocalAddress()){
-												for ( InetAddress a: allBindAddresses ) {
-													if ( a.isAnyLocalAddress()) {
-														result = true;
-														break;
-													}
-												}
-											}else {
-												for ( InetAddress a: allBindAddresses ) {
-													if ( a.equals( t )) {
-														
-														result = true;
-														break;
-													}
-												}
-											}
-											/*
-											String curr = "";
-											for ( InetAddress a: allBindAddresses ) {
-												curr += (curr == ""?"":",") + a;
-												
-											}
-											System.out.println( "PREDICATE: " + t+ " - " + curr + " -> " + result );
-											*/
-											return( result );
-										}
-									});
+							continue;
+						}
+						
+						types.add( type );
+					}
+					
+						// start the address families in parallel so that a slow interface enumeration
+						// or bind for one of them doesn't hold up the other
+					
+					final AESemaphore sem = new AESemaphore( "MLDHT:Starter" );
+					
+					for ( final DHTtype type: types ){
+						
+						new AEThread2( "MLDHT:start:" + type.shortName ){
+							@Override
+							public void
+							run()
+							{
+								try{
+									startDHTType( type );
+									
+								}finally{
+									
+									sem.release();
 								}
-							};
-	
+							}
+						}.start();
+					}
+					
+					long deadline = SystemTime.getMonotonousTime() + STARTUP_DEADLINE;
+					
+					for ( int i=0;i<types.size();i++){
+						
+						long rem = deadline - SystemTime.getMonotonousTime();
+						
+						if ( rem <= 0 || !sem.reserve( rem )){
 							
-							e.getValue().start(config);
+							DHT.logInfo( "DHT startup deadline exceeded, continuing in background" );
 							
-						} catch (Throwable  t) {
-							t.printStackTrace();
+							break;
 						}
 					}
-
-					tracker.start();
+					
+						// no type came up in time (or none enabled), still need the tracker so that
+						// later starts are picked up
+					
+					startTracker( null );
+					
 					view_model.getStatus().setText("Running");
 
 				}
 			});
 	}
+	
+	private void
+	startDHTType(
+		DHTtype		type )
+	{
+		DHT dht = dhts.get( type );
+		
+		if ( dht == null ){
+			
+			return;
+		}
+		
+		DHTStartupTimings timings = new DHTStartupTimings();
+		
+		startupTimings.put( type, timings );
+		
+		long start = SystemTime.getMonotonousTime();
+		
+		DHTStatusListener statusListener = 
+			new DHTStatusListener()
+			{
+				@Override
+				public void 
+				statusChanged(
+					DHTStatus newStatus, 
+					DHTStatus oldStatus) 
+				{
+					if ( newStatus == DHTStatus.Running ){
+						
+						timings.record( DHTStartupTimings.Phase.BOOTSTRAP, SystemTime.getMonotonousTime() - start );
+						
+						dht.removeStatusListener( this );
+						
+						DHT.logInfo( "DHT " + type.shortName + " startup: " + timings );
+						
+							// the tracker may have started with the other types already, torrents
+							// announced since then missed this one until their next interval
+						
+						Tracker tracker = MlDHTPlugin.this.tracker;
+						
+						int count = tracker == null ? 0 : tracker.reannounceMissing( type );
+						
+						if ( count > 0 ){
+							
+							logPipeline.log( "DHT " + type.shortName + " came up late, re-announcing " + count + " torrents", LogLevel.Info );
+						}
+					}
+				}
+			};
+		
+		try{
+			DHTConfiguration config = createConfiguration( type );
+			
+			timings.record( DHTStartupTimings.Phase.CONFIG, SystemTime.getMonotonousTime() - start );
+			
+			dht.addStatusListener( statusListener );
+			
+			dht.start( config );
+			
+			timings.record( DHTStartupTimings.Phase.TABLE_LOAD, SystemTime.getMonotonousTime() - start );
+			
+		}catch( Throwable t ){
+			
+			dht.removeStatusListener( statusListener );
+			
+			logPipeline.log( "DHT " + type.shortName + " failed to start", LogLevel.Fatal );
+			
+			logPipeline.log( t );
+			
+			return;
+		}
+		
+			// servers are bound as they get added, the first one ends the bind phase
+		
+		RPCServerManager srv_man = dht.getServerManager();
+		
+		if ( srv_man != null ){
+			
+			srv_man.notifyOnServerAdded(
+				srv -> timings.record( DHTStartupTimings.Phase.BIND, SystemTime.getMonotonousTime() - start ));
+			
+			if ( srv_man.getActiveServerCount() > 0 ){
+				
+					// bound before the callback got registered
+				
+				timings.record( DHTStartupTimings.Phase.BIND, SystemTime.getMonotonousTime() - start );
+			}
+		}
+		
+			// the DHT is usable for lookups as soon as it is started, no need to wait for it
+			// to be fully bootstrapped
+		
+		startTracker( dht );
+		
+		if ( dht.getStatus() == DHTStatus.Running ){
+			
+				// went running before the listener got registered
+			
+			statusListener.statusChanged( DHTStatus.Running, DHTStatus.Initializing );
+		}
+	}
+	
+	private void
+	startTracker(
+		DHT		started )
+	{
+			// synchronized with stopDHT so that a late starter doesn't revive a stopped tracker
+		
+		synchronized( tracker ){
+			
+			if ( !unloaded && ( started == null || started.isRunning())){
+			
+				tracker.start();
+			}
+		}
+	}
+	
+	/**
+	 * @return the timings of the most recent start of the given DHT or null if it hasn't been started
+	 */
+	public DHTStartupTimings
+	getStartupTimings(
+		DHTtype		type )
+	{
+		return( startupTimings.get( type ));
+	}
+	
+	private DHTConfiguration
+	createConfiguration(
+		final DHTtype	type )
+	{
+		return( new DHTConfiguration() {
+			@Override
+			public boolean noRouterBootstrap() {
+				return pluginInterface.getPluginconfig()
+						.getPluginBooleanParameter(
+								"onlyPeerBootstrap");
+			}
+
+			@Override
+			public boolean isPersistingID() {
+				return pluginInterface.getPluginconfig().getPluginBooleanParameter("alwaysRestoreID");
+			}
+
+			@Override
+			public Path getStoragePath() {
+				return pluginInterface.getPluginconfig().getPluginUserFile("tmp.tmp").getParentFile().toPath();
+			}
+
+			@Override
+			public int getListeningPort() {
+				return pluginInterface.getPluginconfig().getPluginIntParameter("port");
+			}
+
+			@Override
+			public boolean allowMultiHoming() {
+				return pluginInterface.getPluginconfig().getPluginBooleanParameter(type == DHTtype.IPV4_DHT ? "multihoming" : "multihoming6");
+			}
+			
+			public Predicate<InetAddress> filterBindAddress() {
+				return( t -> getBindAddresses().test( t ));
+			}
+		});
+	}
 
 	public void stopDHT () {
 		
@@ -706,9 +984,15 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 				{
 					try{
 						if ( tracker != null ){
-							tracker.stop();
-						}
-						if ( dhts != null ){
+							synchronized( tracker ){
+								tracker.stop();
+								if ( dhts != null ){
+									for (DHT dht : dhts.values()) {
+										dht.stop();
+									}
+								}
+							}
+						}else if ( dhts != null ){
 							for (DHT dht : dhts.values()) {
 								dht.stop();
 							}
@@ -735,13 +1019,104 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 		}
 	}
 
+	private BindAddressSnapshot
+	getBindAddresses()
+	{
+		BindAddressSnapshot result = bindAddresses;
+		
+		if ( result == null ){
+			
+			result = bindAddresses = BindAddressSnapshot.create();
+		}
+		
+		return( result );
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.aelitis.azureus.core.networkmanager.admin.NetworkAdminPropertyChangeListener#propertyChanged(java.lang.String)
 	 */
 	@Override
 	public void propertyChanged(String property) {
-		for (DHT dht : dhts.values()) {
-			Optional.ofNullable(dht.getServerManager()).ifPresent(RPCServerManager::doBindChecks);
+		
+		if ( unloaded ){
+			
+			return;
+		}
+		
+			// the bind filter sees the new addresses right away, only the rebind waits because
+			// interface flaps tend to come in bursts
+		
+		bindAddresses = BindAddressSnapshot.create();
+		
+		synchronized( this ){
+			
+			if ( unloaded ){
+				
+				return;
+			}
+			
+			if ( bindCheckEvent != null ){
+				
+				bindCheckEvent.cancel( false );
+			}
+			
+			bindCheckEvent = executor.schedule( this::networkChanged, NETWORK_CHANGE_DEBOUNCE, TimeUnit.MILLISECONDS );
+		}
+	}
+	
+	private void
+	networkChanged()
+	{
+		synchronized( this ){
+			
+			bindCheckEvent = null;
+		}
+		
+		BindAddressSnapshot previous = reconciledAddresses;
+		BindAddressSnapshot current = getBindAddresses();
+		
+		reconciledAddresses = current;
+		
+		Map<DHTtype, DHT> dhts = this.dhts;
+		
+		if ( dhts == null ){
+			
+			return;
+		}
+		
+			// only address families whose bind or interface addresses changed need rebinding
+		
+		Set<DHTtype> affected = EnumSet.noneOf( DHTtype.class );
+		
+		for ( DHT dht : dhts.values()){
+			
+			if ( previous == null || current.hasChanged( previous, dht.getType())){
+				
+				affected.add( dht.getType());
+				
+				Optional.ofNullable(dht.getServerManager()).ifPresent(RPCServerManager::doBindChecks);
+			}
+		}
+		
+		Tracker tracker = this.tracker;
+		
+		if ( affected.isEmpty() || previous == null || tracker == null ){
+			
+			return;
+		}
+		
+			// announces sent from a socket that lost its address didn't reach anyone or registered
+			// a stale address. we don't know which source address a wildcard socket used, so those
+			// only count once the family actually lost one of its addresses
+		
+		int count = tracker.reannounce(( type, socket ) ->
+			affected.contains( type ) && ( socket.isAnyLocalAddress()
+				? current.hasLostAddress( previous, type )
+				: !current.isLocalAddress( type, socket )));
+		
+		if ( count > 0 ){
+			
+			logPipeline.log( "Network change affected " + affected + ", re-announcing " + count + " torrents", LogLevel.Info );
 		}
 	}
 	
@@ -758,7 +1133,7 @@ public class MlDHTPlugin implements UnloadablePlugin, PluginListener, NetworkAdm
 		
 		if ( state == Download.ST_DOWNLOADING || state == Download.ST_SEEDING ){
 			
-			DownloadManager core_dm = PluginCoreUtils.unwrap( download );
+			DownloadManager core_dm = PluginCoreUtils.unwrapIfPossible( download );
 			
 			if ( core_dm != null ){
 				
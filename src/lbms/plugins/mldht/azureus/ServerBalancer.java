@@ -0,0 +1,160 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.Key;
+import lbms.plugins.mldht.kad.RPCServer;
+import lbms.plugins.mldht.kad.RPCServerManager;
+import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
+
+/**
+ * Spreads the Tracker's peer lookups over the RPC servers of a multihomed DHT.
+ *
+ * {@link DHT#createPeerLookup(byte[])} picks a random active server. Here the
+ * server whose node ID is closest (XOR) to the infohash is preferred, so the
+ * lookup starts nearer to the target, unless it is noticeably busier than the
+ * least loaded server. Load is the number of our lookups still running on a
+ * server plus its active RPC calls scaled to lookups.
+ */
+public class ServerBalancer {
+
+	/** a lookup keeps about this many RPCs in flight */
+	private static final int	RPCS_PER_LOOKUP	= 10;
+	/** extra load accepted on the closest server before a less loaded one is used */
+	private static final int	LOAD_SLACK		= 2;
+
+	public static final class ServerLoad {
+		public final DHTtype		type;
+		public final RPCServer		server;
+		final AtomicInteger			inFlight	= new AtomicInteger();
+		final AtomicLong			started		= new AtomicLong();
+
+		ServerLoad (DHTtype type, RPCServer server) {
+			this.type = type;
+			this.server = server;
+		}
+
+		public int getLookupsInFlight () {
+			return inFlight.get();
+		}
+
+		public long getLookupsStarted () {
+			return started.get();
+		}
+
+		int getLoad () {
+			return inFlight.get() + server.getNumActiveRPCCalls() / RPCS_PER_LOOKUP;
+		}
+	}
+
+	private final Map<RPCServer, ServerLoad>	servers	= new ConcurrentHashMap<>();
+
+	/**
+	 * @return a lookup on the chosen server, null if the DHT has no active
+	 *         server
+	 */
+	public PeerLookupTask createPeerLookup (DHT dht, byte[] hash) {
+		Key target = new Key(hash);
+		RPCServer server = select(dht, target);
+		PeerLookupTask task = server != null ? new PeerLookupTask(server, dht.getNode(), target) : dht.createPeerLookup(hash);
+		if (task == null) {
+			return null;
+		}
+		ServerLoad load = servers.computeIfAbsent(task.getRPC(), srv -> new ServerLoad(dht.getType(), srv));
+		load.started.incrementAndGet();
+		load.inFlight.incrementAndGet();
+		task.addListener(t -> load.inFlight.decrementAndGet());
+		return task;
+	}
+
+	/**
+	 * @return null if there is at most one server, the library's choice is as
+	 *         good as ours then
+	 */
+	RPCServer select (DHT dht, Key target) {
+		RPCServerManager manager = dht.getServerManager();
+		if (manager == null) {
+			return null;
+		}
+		List<RPCServer> active = manager.getActiveServers();
+		if (active.size() < 2) {
+			return null;
+		}
+
+		int minLoad = Integer.MAX_VALUE;
+		int[] loads = new int[active.size()];
+		for (int i = 0; i < loads.length; i++) {
+			ServerLoad load = servers.get(active.get(i));
+			loads[i] = load != null ? load.getLoad() : active.get(i).getNumActiveRPCCalls() / RPCS_PER_LOOKUP;
+			minLoad = Math.min(minLoad, loads[i]);
+		}
+
+		RPCServer best = null;
+		byte[] bestId = null;
+		byte[] targetId = target.getHash();
+		for (int i = 0; i < loads.length; i++) {
+			if (loads[i] > minLoad + LOAD_SLACK) {
+				continue;
+			}
+			byte[] id = active.get(i).getDerivedID().getHash();
+			if (best == null || closer(targetId, id, bestId)) {
+				best = active.get(i);
+				bestId = id;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return true if a is closer to target than b in XOR metric
+	 */
+	static boolean closer (byte[] target, byte[] a, byte[] b) {
+		for (int i = 0; i < target.length; i++) {
+			int da = (a[i] ^ target[i]) & 0xff;
+			int db = (b[i] ^ target[i]) & 0xff;
+			if (da != db) {
+				return da < db;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Forgets servers that are no longer active, e.g. after a rebind
+	 */
+	public void prune (DHT dht) {
+		RPCServerManager manager = dht.getServerManager();
+		List<RPCServer> active = manager == null ? new ArrayList<>() : manager.getActiveServers();
+		servers.values().removeIf(load -> load.type == dht.getType() && !active.contains(load.server));
+	}
+
+	/**
+	 * @return the servers lookups were started on, in no particular order
+	 */
+	public List<ServerLoad> getServers () {
+		return new ArrayList<>(servers.values());
+	}
+}
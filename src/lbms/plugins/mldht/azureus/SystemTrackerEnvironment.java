@@ -0,0 +1,215 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.biglybt.core.util.AERunnable;
+import com.biglybt.core.util.AEThread2;
+import com.biglybt.core.util.AsyncDispatcher;
+import com.biglybt.core.util.Debug;
+import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.SystemTime;
+import com.biglybt.core.util.TimerEvent;
+
+/**
+ * Wall clock {@link TrackerEnvironment} backed by the plugin's executor and
+ * the BiglyBT core utilities.
+ *
+ * Dispatched tasks go to a serial queue, partitioned ones to one of several
+ * shards so announce setup and completion of different torrents can use
+ * multiple cores. On JVMs with virtual threads the queues and
+ * {@link #execute} use those instead of AsyncDispatcher and AEThread2.
+ */
+public class SystemTrackerEnvironment implements TrackerEnvironment {
+
+	private final MlDHTPlugin		plugin;
+	private final Random			random		= new Random();
+	private final SerialQueue		dispatcher	= new SerialQueue("mlDHT:dispatch");
+	private final SerialQueue[]		shards;
+
+	public SystemTrackerEnvironment (MlDHTPlugin plugin) {
+		this(plugin, getDefaultShardCount());
+	}
+
+	public SystemTrackerEnvironment (MlDHTPlugin plugin, int shardCount) {
+		this.plugin = plugin;
+		shards = new SerialQueue[Math.max(1, shardCount)];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new SerialQueue("mlDHT:dispatch:" + i);
+		}
+	}
+
+	/**
+	 * @return one shard per core, between 2 and 8
+	 */
+	public static int getDefaultShardCount () {
+		return Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Runs tasks one at a time in submission order, on a virtual thread if
+	 * available, an AsyncDispatcher otherwise
+	 */
+	private static final class SerialQueue {
+		private final String				name;
+		private final AsyncDispatcher		dispatcher;
+		private ThreadPoolExecutor			executor;
+		private boolean						closed;
+
+		SerialQueue (String name) {
+			this.name = name;
+			executor = ThreadSupport.newSerialExecutor(name);
+			dispatcher = executor == null ? new AsyncDispatcher() : null;
+		}
+
+		/**
+		 * Submits under the lock so close() can't shut the executor down in
+		 * between
+		 */
+		synchronized void dispatch (Runnable task) {
+			if (closed) {
+				// lookups finishing after the tracker stopped, nothing left to deliver to
+				return;
+			}
+			if (executor != null) {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} catch (Throwable e) {
+						Debug.out(e);
+					}
+				});
+				return;
+			}
+			dispatcher.dispatch(new AERunnable() {
+				@Override
+				public void runSupport () {
+					task.run();
+				}
+			});
+		}
+
+		synchronized int getQueueSize () {
+			if (dispatcher != null) {
+				return dispatcher.getQueueSize();
+			}
+			return executor != null ? executor.getQueue().size() : 0;
+		}
+
+		synchronized void open () {
+			if (!closed) {
+				return;
+			}
+			closed = false;
+			if (dispatcher == null) {
+				executor = ThreadSupport.newSerialExecutor(name);
+			}
+		}
+
+		/**
+		 * Lets queued tasks finish and then ends the thread, the AsyncDispatcher
+		 * retires its own thread when idle
+		 */
+		synchronized void close () {
+			closed = true;
+			if (executor != null) {
+				executor.shutdown();
+				executor = null;
+			}
+		}
+	}
+
+	@Override
+	public long currentTimeMillis () {
+		return System.currentTimeMillis();
+	}
+
+	@Override
+	public long nanoTime () {
+		return System.nanoTime();
+	}
+
+	@Override
+	public Random getRandom () {
+		return random;
+	}
+
+	@Override
+	public Cancellable scheduleAtFixedRate (String name, long initialDelay, long period, Runnable task) {
+		// executor is created during plugin initialization, look it up late
+		ScheduledFuture<?> f = plugin.executor.scheduleAtFixedRate(task, initialDelay, period, TimeUnit.MILLISECONDS);
+		return () -> f.cancel(false);
+	}
+
+	@Override
+	public Cancellable schedule (String name, long delay, Runnable task) {
+		TimerEvent ev = SimpleTimer.addEvent(name, SystemTime.getOffsetTime(delay), e -> task.run());
+		return ev::cancel;
+	}
+
+	@Override
+	public void dispatch (Runnable task) {
+		dispatcher.dispatch(task);
+	}
+
+	@Override
+	public void dispatch (int partition, Runnable task) {
+		shards[Math.floorMod(partition, shards.length)].dispatch(task);
+	}
+
+	@Override
+	public int getDispatchBacklog () {
+		int backlog = dispatcher.getQueueSize();
+		for (SerialQueue shard : shards) {
+			backlog += shard.getQueueSize();
+		}
+		return backlog;
+	}
+
+	@Override
+	public void open () {
+		dispatcher.open();
+		for (SerialQueue shard : shards) {
+			shard.open();
+		}
+	}
+
+	@Override
+	public void close () {
+		dispatcher.close();
+		for (SerialQueue shard : shards) {
+			shard.close();
+		}
+	}
+
+	@Override
+	public void execute (String name, Runnable task) {
+		if (ThreadSupport.startVirtualThread(name, task)) {
+			return;
+		}
+		new AEThread2(name) {
+			@Override
+			public void run () {
+				task.run();
+			}
+		}.start();
+	}
+}
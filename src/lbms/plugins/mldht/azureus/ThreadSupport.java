@@ -0,0 +1,57 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Access to threading features newer than the plugin's Java 8 baseline.
+ *
+ * This is the Java 8 implementation which reports them as unavailable, callers
+ * fall back to platform threads. The multi-release jar carries a Java 21
+ * version (src-java21) with the same signatures that uses virtual threads.
+ */
+public final class ThreadSupport {
+
+	/** set to false to keep platform threads on JVMs with virtual threads */
+	public static final String	PROPERTY	= "mldht.virtualThreads";
+
+	private ThreadSupport () {
+	}
+
+	public static boolean hasVirtualThreads () {
+		return false;
+	}
+
+	/**
+	 * Runs the task on a new virtual thread
+	 *
+	 * @return false if virtual threads are not available, the task was not
+	 *         started
+	 */
+	public static boolean startVirtualThread (String name, Runnable task) {
+		return false;
+	}
+
+	/**
+	 * @return an executor running one task at a time in submission order on a
+	 *         virtual thread, null if virtual threads are not available
+	 */
+	public static ThreadPoolExecutor newSerialExecutor (String name) {
+		return null;
+	}
+}
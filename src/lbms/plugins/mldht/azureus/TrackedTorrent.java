@@ -16,8 +16,12 @@
  */
 package lbms.plugins.mldht.azureus;
 
+import java.net.InetAddress;
 import java.util.concurrent.Delayed;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
 
 import com.biglybt.pif.download.Download;
 
@@ -27,21 +31,65 @@ import com.biglybt.pif.download.Download;
  */
 public class TrackedTorrent implements Delayed {
 
-	private long		timestamp;
-	private long		lastAnnounceStart;
-	private Download	download;
-	private boolean		announcing;
-	private int			announceCount;
+	/**
+	 * Immutable view of the announce state, replaced on every change so that
+	 * UI code can read it without taking the Tracker lock.
+	 */
+	public static final class Stats {
+		static final Stats	EMPTY	= new Stats(0, -1, 0, 0, 0, 0, 0);
+
+		/** start of the last announce or scrape, 0 if there was none */
+		public final long	lastAnnounceStart;
+		/** duration of the last completed announce in ms, -1 if none completed yet */
+		public final long	lastDuration;
+		/** time the next announce is due, 0 if none is scheduled */
+		public final long	nextAnnounce;
+		public final int	peersFound;
+		public final int	scrapeSeeds;
+		public final int	scrapePeers;
+		public final int	announceCount;
+
+		Stats (long lastAnnounceStart, long lastDuration, long nextAnnounce, int peersFound, int scrapeSeeds,
+				int scrapePeers, int announceCount) {
+			this.lastAnnounceStart = lastAnnounceStart;
+			this.lastDuration = lastDuration;
+			this.nextAnnounce = nextAnnounce;
+			this.peersFound = peersFound;
+			this.scrapeSeeds = scrapeSeeds;
+			this.scrapePeers = scrapePeers;
+			this.announceCount = announceCount;
+		}
+	}
+
+	private long			timestamp;
+	private long			lastAnnounceStart;
+	private Download		download;
+	private boolean			announcing;
+	private int				announceCount;
+	private boolean			queued;
+	private volatile Stats	stats	= Stats.EMPTY;
+	private final LongSupplier	clock;
+	/** local socket address of the last lookup per DHT type, indexed by ordinal */
+	private volatile InetAddress[]	announceSockets;
+	private volatile boolean		reannounce;
 
 	public TrackedTorrent (Download download) {
-		this.download = download;
+		this(download, System::currentTimeMillis);
 	}
 
 	public TrackedTorrent (Download download, long delay) {
-		this.download = download;
+		this(download, System::currentTimeMillis);
 		setDelay(delay);
 	}
 
+	/**
+	 * @param clock current time in milliseconds, see {@link TrackerEnvironment}
+	 */
+	public TrackedTorrent (Download download, LongSupplier clock) {
+		this.download = download;
+		this.clock = clock;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -49,7 +97,7 @@ public class TrackedTorrent implements Delayed {
 	 */
 	@Override
 	public long getDelay (TimeUnit unit) {
-		return unit.convert(timestamp - System.currentTimeMillis(),
+		return unit.convert(timestamp - clock.getAsLong(),
 				TimeUnit.MILLISECONDS);
 	}
 
@@ -104,6 +152,11 @@ public class TrackedTorrent implements Delayed {
 		this.announcing = announcing;
 		if ( announcing){
 			announceCount++;
+			synchronized (this) {
+				Stats s = stats;
+				stats = new Stats(s.lastAnnounceStart, s.lastDuration, 0, s.peersFound, s.scrapeSeeds,
+						s.scrapePeers, announceCount);
+			}
 		}
 	}
 
@@ -114,13 +167,29 @@ public class TrackedTorrent implements Delayed {
 	}
 	
 	public void setDelay (long delay) {
-		timestamp = System.currentTimeMillis() + delay;
-
+		timestamp = clock.getAsLong() + delay;
+		queued = true;
+		synchronized (this) {
+			Stats s = stats;
+			stats = new Stats(s.lastAnnounceStart, s.lastDuration, timestamp, s.peersFound, s.scrapeSeeds,
+					s.scrapePeers, s.announceCount);
+		}
 	}
 
 	public void setDelay (long delay, TimeUnit unit) {
-		timestamp = System.currentTimeMillis()
-				+ TimeUnit.MILLISECONDS.convert(delay, unit);
+		setDelay(TimeUnit.MILLISECONDS.convert(delay, unit));
+	}
+
+	/**
+	 * @return how long the torrent waited past its scheduled time, or -1 if the
+	 *         announce wasn't scheduled (e.g. manually triggered)
+	 */
+	public long takeQueueWait (long now) {
+		if (!queued) {
+			return -1;
+		}
+		queued = false;
+		return Math.max(0, now - timestamp);
 	}
 
 	/**
@@ -136,6 +205,57 @@ public class TrackedTorrent implements Delayed {
 
 	public void setLastAnnounceStart(long lastAnnounceStart) {
 		this.lastAnnounceStart = lastAnnounceStart;
+		synchronized (this) {
+			Stats s = stats;
+			stats = new Stats(lastAnnounceStart, s.lastDuration, s.nextAnnounce, s.peersFound, s.scrapeSeeds,
+					s.scrapePeers, s.announceCount);
+		}
+	}
+
+	/**
+	 * Records the outcome of the announce started at {@link #getLastAnnounceStart()}
+	 */
+	public void announceFinished (long duration, int peersFound, int scrapeSeeds, int scrapePeers) {
+		synchronized (this) {
+			Stats s = stats;
+			stats = new Stats(s.lastAnnounceStart, duration, s.nextAnnounce, peersFound, scrapeSeeds, scrapePeers,
+					s.announceCount);
+		}
 	}
 
+	/**
+	 * @param sockets bind address of the RPC server each DHT type's lookup
+	 *            was sent from, null entries for types not used
+	 */
+	public void setAnnounceSockets (InetAddress[] sockets) {
+		announceSockets = sockets;
+	}
+
+	/**
+	 * @return the socket the last announce used on the DHT type, null if none
+	 */
+	public InetAddress getAnnounceSocket (DHTtype type) {
+		InetAddress[] sockets = announceSockets;
+		return sockets == null ? null : sockets[type.ordinal()];
+	}
+
+	/**
+	 * Requests a new announce as soon as the running one has finished
+	 */
+	public void setReannounce () {
+		reannounce = true;
+	}
+
+	public boolean takeReannounce () {
+		boolean result = reannounce;
+		reannounce = false;
+		return result;
+	}
+
+	/**
+	 * @return the current announce state, never null; does not lock
+	 */
+	public Stats getStats () {
+		return stats;
+	}
 }
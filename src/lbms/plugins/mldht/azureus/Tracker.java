@@ -16,15 +16,23 @@
  */
 package lbms.plugins.mldht.azureus;
 
+import java.io.File;
+import java.net.InetAddress;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.DelayQueue;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
 
 import lbms.plugins.mldht.kad.*;
 import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.DHT.LogLevel;
+import lbms.plugins.mldht.kad.tasks.AnnounceTask;
 import lbms.plugins.mldht.kad.tasks.PeerLookupTask;
 import lbms.plugins.mldht.kad.tasks.Task;
 import lbms.plugins.mldht.kad.tasks.TaskListener;
@@ -32,12 +40,7 @@ import lbms.plugins.mldht.kad.tasks.TaskListener;
 import com.biglybt.core.download.DownloadManager;
 import com.biglybt.core.download.DownloadManagerState;
 import com.biglybt.core.download.DownloadManagerStateAttributeListener;
-import com.biglybt.core.util.AERunnable;
-import com.biglybt.core.util.AEThread2;
-import com.biglybt.core.util.AsyncDispatcher;
-import com.biglybt.core.util.SimpleTimer;
-import com.biglybt.core.util.SystemTime;
-import com.biglybt.core.util.TimerEvent;
+import com.biglybt.core.util.Debug;
 import com.biglybt.pif.download.Download;
 import com.biglybt.pif.download.DownloadAnnounceResult;
 import com.biglybt.pif.download.DownloadAttributeListener;
@@ -45,6 +48,7 @@ import com.biglybt.pif.download.DownloadListener;
 import com.biglybt.pif.download.DownloadManagerListener;
 import com.biglybt.pif.download.DownloadScrapeResult;
 import com.biglybt.pif.download.DownloadTrackerListener;
+import com.biglybt.pif.torrent.Torrent;
 import com.biglybt.pif.torrent.TorrentAttribute;
 import com.biglybt.pifimpl.local.PluginCoreUtils;
 
@@ -58,6 +62,7 @@ public class Tracker {
 	public static final int					MAX_CONCURRENT_SCRAPES		= 1;
 
 	public static final int					TRACKER_UPDATE_INTERVAL		= 10 * 1000;
+	public static final int					RECORDER_FLUSH_INTERVAL		= 60 * 1000;
 
 	public static final int					SHORT_DELAY					= 60 * 1000;
 	public static final int					VERY_SHORT_DELAY			= 5 * 1000;
@@ -75,25 +80,49 @@ public class Tracker {
 
 	private List<Download>					currentAnnounces			= new LinkedList<>();
 	private List<Download>					currentScrapes				= new LinkedList<>();
+	/** announces/scrapes started by checkQueues but still waiting on their dispatch partition */
+	private final AtomicInteger				reservedAnnounces			= new AtomicInteger();
+	private final AtomicInteger				reservedScrapes				= new AtomicInteger();
 	private MlDHTPlugin						plugin;
-	private boolean							running;
-	private Random							random						= new Random();
-	private ScheduledFuture<?>				timer;
+	private volatile boolean				running;
+	private final TrackerEnvironment		env;
+	private final Random					random;
+	private TrackerEnvironment.Cancellable	timer;
+	private TrackerEnvironment.Cancellable	recorderFlush;
 
 	private TorrentAttribute				ta_networks;
 	private TorrentAttribute				ta_peer_sources;
 	
 	private ListenerBundle					listener					= new ListenerBundle();
 
-	private Map<Download, TrackedTorrent>	trackedTorrents				= new HashMap<>();
+	// concurrent so that the UI can look up torrents without locking, compound
+	// operations still synchronize on the map
+	private Map<Download, TrackedTorrent>	trackedTorrents				= new ConcurrentHashMap<>();
 	
 	private Queue<TrackedTorrent>			scrapeQueue					= new DelayQueue<>();
 	private Queue<TrackedTorrent>			announceQueue				= new DelayQueue<>();
 
-	private AsyncDispatcher	dispatcher = new AsyncDispatcher();
+	private volatile TrackerJournal			journal;
+	private volatile TrackerRecorder		recorder;
+	
+	private final AnnounceLatencyStats		latencyStats				= new AnnounceLatencyStats();
+	private final ServerBalancer			serverBalancer				= new ServerBalancer();
+	private final BandwidthBudget			budget;
+	
+	private final AtomicLong				announcesStarted			= new AtomicLong();
+	private final AtomicLong				scrapesStarted				= new AtomicLong();
+	private final AtomicLong				timeouts					= new AtomicLong();
+	private final AtomicLong				budgetDeferrals				= new AtomicLong();
 	
 	protected Tracker (MlDHTPlugin plugin) {
+		this(plugin, new SystemTrackerEnvironment(plugin));
+	}
+
+	protected Tracker (MlDHTPlugin plugin, TrackerEnvironment env) {
 		this.plugin = plugin;
+		this.env = env;
+		this.random = env.getRandom();
+		this.budget = new BandwidthBudget(plugin);
 		ta_networks = plugin.getPluginInterface().getTorrentManager().getAttribute(
 				TorrentAttribute.TA_NETWORKS);
 		ta_peer_sources = plugin.getPluginInterface().getTorrentManager().getAttribute(
@@ -106,12 +135,31 @@ public class Tracker {
 			return;
 		}
 		DHT.logInfo("Tracker: starting...");
-		timer = plugin.executor.scheduleAtFixedRate(new Runnable() {
-			@Override
-			public void run () {
-				checkQueues();
+		env.open();
+		timer = env.scheduleAtFixedRate("mlDHT:tracker", 100 * 1000, TRACKER_UPDATE_INTERVAL, this::checkQueues);
+		
+		if (plugin.getPluginInterface().getPluginconfig().getPluginBooleanParameter("journal.enable", false)) {
+			try {
+				File dir = plugin.getPluginInterface().getPluginconfig().getPluginUserFile("tmp.tmp").getParentFile();
+				journal = new TrackerJournal(new File(dir, "journal"));
+			} catch (Throwable e) {
+				Debug.out(e);
 			}
-		}, 100 * 1000, TRACKER_UPDATE_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		
+		if (plugin.getPluginInterface().getPluginconfig().getPluginBooleanParameter("recorder.enable", false)) {
+			try {
+				File dir = plugin.getPluginInterface().getPluginconfig().getPluginUserFile("tmp.tmp").getParentFile();
+				long now = env.currentTimeMillis();
+				recorder = new TrackerRecorder(new File(new File(dir, "recordings"), "tracker-" + now + ".rec.gz"), now,
+						ta_networks, ta_peer_sources);
+				recorderFlush = env.scheduleAtFixedRate("mlDHT:recorder", RECORDER_FLUSH_INTERVAL, RECORDER_FLUSH_INTERVAL,
+						recorder::flush);
+			} catch (Throwable e) {
+				Debug.out(e);
+			}
+		}
+		
 		plugin.getPluginInterface().getDownloadManager().addListener(listener);
 
 		running = true;
@@ -123,7 +171,19 @@ public class Tracker {
 		}
 		DHT.logInfo("Tracker: stopping...");
 		if (timer != null) {
-			timer.cancel(false);
+			timer.cancel();
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		if (recorderFlush != null) {
+			recorderFlush.cancel();
+			recorderFlush = null;
+		}
+		if (recorder != null) {
+			recorder.close();
+			recorder = null;
 		}
 		announceQueue.clear();
 		synchronized( trackedTorrents ){
@@ -134,6 +194,7 @@ public class Tracker {
 		for (Download dl : downloads) {
 			listener.cleanup(dl);
 		}
+		env.close();
 
 		running = false;
 	}
@@ -145,39 +206,65 @@ public class Tracker {
 			}
 
 			if (dl.getTorrent().isPrivate()) {
-				DHT.logDebug("Announce for [" + dl.getName()
-						+ "] forbidden because Torrent is private.");
+				if (LogPipeline.shouldLog(LogLevel.Debug)) {
+					DHT.logDebug("Announce for [" + dl.getName()
+							+ "] forbidden because Torrent is private.");
+				}
 				return;
 			}
 			
-			final long startTime = System.currentTimeMillis();
+			final long startTime = env.currentTimeMillis();
+			final long startNanos = env.nanoTime();
 
 			final TrackedTorrent tor;
 			final boolean scrapeOnly;
+			final AnnounceLatencyStats.TorrentClass torrentClass;
+			final int inFlight;
+			long wait = -1;
 			
 			synchronized( trackedTorrents ){
 				tor = trackedTorrents.get(dl);
 				if ( tor != null ) {
 					if (tor.isAnnouncing()) {
-						DHT.logDebug("Announce for ["
-								+ dl.getName()
-								+ "] was denied since there is already one running.");
+						if (LogPipeline.shouldLog(LogLevel.Debug)) {
+							DHT.logDebug("Announce for ["
+									+ dl.getName()
+									+ "] was denied since there is already one running.");
+						}
 						return;
 					}
 				}
 				
 				scrapeOnly = MlDHTPlugin.getEffectiveDownloadState( dl ) == Download.ST_QUEUED;
+				torrentClass = AnnounceLatencyStats.TorrentClass.of( dl, scrapeOnly );
 
-				DHT.logInfo("DHT Starting Announce for " + dl.getName() + ", scrape=" + scrapeOnly + ", seeds=" + !dl.isComplete(true));
+				if (LogPipeline.shouldLog(LogLevel.Info)) {
+					DHT.logInfo("DHT Starting Announce for " + dl.getName() + ", scrape=" + scrapeOnly + ", seeds=" + !dl.isComplete(true));
+				}
 												
 				if (tor != null) {
+					wait = tor.takeQueueWait(startTime);
+					if (wait >= 0) {
+						latencyStats.record(torrentClass, AnnounceLatencyStats.Phase.QUEUE_WAIT, TimeUnit.MILLISECONDS.toNanos(wait));
+					}
 					tor.setAnnouncing(true);
 					tor.setLastAnnounceStart(startTime);
 				}
 								
 				(scrapeOnly ? currentScrapes : currentAnnounces).add(dl);
+				inFlight = (scrapeOnly ? currentScrapes : currentAnnounces).size();
 			}
 			
+			// the recorder writes through gzip, keep that out of the lock
+			record(scrapeOnly ? TrackerRecorder.Event.SCRAPE_STARTED : TrackerRecorder.Event.ANNOUNCE_STARTED, dl,
+					(int) Math.max(0, wait), inFlight);
+			
+			final long queueWait = Math.max(0, wait);
+			final int partition = partition(dl);
+			final Object announceEvent = TrackerEvents.begin(TrackerEvents.Type.ANNOUNCE);
+			
+			(scrapeOnly ? scrapesStarted : announcesStarted).incrementAndGet();
+			
 			new TaskListener() {
 				Set<PeerAddressDBItem> items = new HashSet<>();
 				ScrapeResponseHandler scrapeHandler = new ScrapeResponseHandler();
@@ -185,7 +272,14 @@ public class Tracker {
 				final boolean[] interiming = {false};
 				
 				boolean allFinished = false;
-				final TimerEvent	timeoutEvent;
+				boolean timedOut = false;
+				final TrackerEnvironment.Cancellable	timeoutEvent;
+				
+				final Object[] lookupEvents = new Object[DHTtype.values().length];
+				final AtomicInteger rpcsSent = new AtomicInteger();
+				final AtomicInteger rpcsAnswered = new AtomicInteger();
+				final AtomicInteger rpcsFailed = new AtomicInteger();
+				int lookups;
 				
 				BiConsumer<KBucketEntry,PeerAddressDBItem> announceHandler =
 					(scrapeOnly||tor==null||tor.getAnnounceCount()>1)?
@@ -213,17 +307,10 @@ public class Tracker {
 									
 									interiming[0] = true;
 									
-									new AEThread2("mlDHT:interim" )
-									{
-										@Override
-										public void
-										run()
+										// give other results 50ms to arrive, then report them from a separate thread
+									
+									env.schedule( "mlDHT:interim", 50, () -> env.execute( "mlDHT:interim", () -> 
 										{
-											try {
-												Thread.sleep(50);
-											}catch( Throwable e ) {
-												
-											}
 											synchronized( interiming ){
 												
 												if ( !done[0] ){
@@ -232,37 +319,66 @@ public class Tracker {
 													
 													DHTAnnounceResult res = new DHTAnnounceResult( dl, interim_items, 0);
 													
+													journal(TrackerJournal.Event.INTERIM, null, dl, interim_items.size(), 0);
+													
+													Object ev = TrackerEvents.begin(TrackerEvents.Type.INTERIM);
+													if ( ev != null ){
+														TrackerEvents.commit(ev, TrackerEvents.hash(dl.getTorrent().getHash()), interim_items.size());
+													}
+													
 													dl.setAnnounceResult(res);
 												}
 											}
-										}
-									}.start();
+										}));
 								}
 							}
 						}
 					};
 				
+				final AtomicBoolean gotFirstPeer = new AtomicBoolean();
+				
+				BiConsumer<KBucketEntry,PeerAddressDBItem> resultHandler =
+					(entry, item) -> {
+						if ( !gotFirstPeer.get() && gotFirstPeer.compareAndSet( false, true )){
+							latencyStats.record( torrentClass, AnnounceLatencyStats.Phase.FIRST_PEER, env.nanoTime() - startNanos );
+						}
+						if ( announceHandler != null ){
+							announceHandler.accept( entry, item );
+						}
+					};
+				
 				AtomicInteger pendingCount = new AtomicInteger();
 				
 				{ // initializer					
 					byte[] hash = dl.getTorrent().getHash();
+					InetAddress[] sockets = new InetAddress[DHTtype.values().length];
 					
 					for(DHTtype type : DHTtype.values())
 					{
 						DHT dht = plugin.getDHT(type);
-						PeerLookupTask lookupTask = dht.createPeerLookup( hash );
+						if (dht == null || !dht.isRunning()) {
+							continue;
+						}
+						PeerLookupTask lookupTask = serverBalancer.createPeerLookup( dht, hash );
 						if (lookupTask != null) {
+							journal(TrackerJournal.Event.LOOKUP_STARTED, type, dl, 0, 0);
+							lookupEvents[type.ordinal()] = TrackerEvents.begin(TrackerEvents.Type.LOOKUP);
+							lookups++;
 							pendingCount.incrementAndGet();
 							lookupTask.setScrapeHandler(scrapeHandler);
-							if(announceHandler != null)
-								lookupTask.setResultHandler(announceHandler);
+							lookupTask.setResultHandler(resultHandler);
 							lookupTask.setNoAnnounce(scrapeOnly);
 							lookupTask.addListener(this);
 							lookupTask.setInfo(dl.getName());
 							lookupTask.setNoSeeds(dl.isComplete(true));
+							sockets[type.ordinal()] = lookupTask.getRPC().getBindAddress();
 							dht.getTaskManager().addTask(lookupTask);
 						}
 					}
+					
+					if ( tor != null ){
+						tor.setAnnounceSockets( sockets );
+					}
 
 					if ( pendingCount.get() == 0 ){
 						
@@ -277,11 +393,16 @@ public class Tracker {
 							// hack
 						
 						timeoutEvent = 
-							SimpleTimer.addEvent( 
+							env.schedule( 
 								"mlDHT:tt", 
-								SystemTime.getOffsetTime( 15*60*1000 ),
-								(ev)->{
-									DHT.logInfo("DHT Announce timeout for " + dl.getName());
+								15*60*1000,
+								()->{
+									if (LogPipeline.shouldLog(LogLevel.Info)) {
+										DHT.logInfo("DHT Announce timeout for " + dl.getName());
+									}
+									journal(TrackerJournal.Event.TIMED_OUT, null, dl, 0, 0);
+									timeouts.incrementAndGet();
+									timedOut = true;
 									allFinished( false );
 								});
 					}
@@ -289,7 +410,10 @@ public class Tracker {
 				
 				@Override
 				public void finished(Task t) {
-					DHT.logDebug("DHT Task done: " + t.getClass().getSimpleName());
+					long now = env.nanoTime();
+					if (LogPipeline.shouldLog(LogLevel.Debug)) {
+						DHT.logDebug("DHT Task done: " + t.getClass().getSimpleName());
+					}
 					synchronized( interiming ) {
 						done[0] = true;
 					}
@@ -299,18 +423,34 @@ public class Tracker {
 						{
 							items.addAll(peerLookup.getReturnedItems());
 						}
+						DHTtype type = t.getRPC().getDHT().getType();
+						journal(TrackerJournal.Event.PEERS_FOUND, type, dl, peerLookup.getReturnedItems().size(), 0);
+						latencyStats.recordLookup(torrentClass, type, now - startNanos);
+						rpcsSent.addAndGet(t.getSentReqs());
+						rpcsAnswered.addAndGet(t.getRecvResponses());
+						rpcsFailed.addAndGet(t.getFailedReqs());
+						Object lookupEvent = lookupEvents[type.ordinal()];
+						if (lookupEvent != null) {
+							TrackerEvents.commit(lookupEvent, TrackerEvents.hash(dl.getTorrent().getHash()), type.shortName,
+									peerLookup.getReturnedItems().size(), t.getSentReqs(), t.getRecvResponses(), t.getFailedReqs());
+						}
 						
 							// no announce for metadata downloads
 						if ( !dl.getFlag( Download.FLAG_METADATA_DOWNLOAD )){
 								// if we're not just scraping the torrent... send announces
 							if(!scrapeOnly){
-								t.getRPC().getDHT().announce(peerLookup, dl.isComplete(true),plugin.getPluginInterface().getPluginconfig().getUnsafeIntParameter("TCP.Listen.Port"));
+								AnnounceTask announce = t.getRPC().getDHT().announce(peerLookup, dl.isComplete(true),plugin.getPluginInterface().getPluginconfig().getUnsafeIntParameter("TCP.Listen.Port"));
+								if (announce != null) {
+									final long announceStart = env.nanoTime();
+									announce.addListener(at -> latencyStats.record(torrentClass, AnnounceLatencyStats.Phase.ANNOUNCE_RPC, env.nanoTime() - announceStart));
+								}
 							}
 						}
 						
 						if(pendingCount.decrementAndGet() > 0)
 							return;
-						allFinished( true );
+						// delivering the result calls into the core, keep that off the DHT executor
+						env.dispatch( partition, () -> allFinished( true ));
 					}
 				}
 				
@@ -334,11 +474,21 @@ public class Tracker {
 						
 						if (tor != null) {
 							tor.setAnnouncing(false);
+							tor.announceFinished(env.currentTimeMillis() - startTime, items.size(),
+									scrapeHandler.getScrapedSeeds(), scrapeHandler.getScrapedPeers());
 						}
 					}
 					
-					// schedule the next announce (will be ignored if there is one pending)
-					scheduleTorrent(dl, false);
+					if ( tor != null && tor.takeReannounce()){
+						
+							// the network changed under this announce, its results may be incomplete
+						
+						requeueNow( tor );
+					}else{
+					
+						// schedule the next announce (will be ignored if there is one pending)
+						scheduleTorrent(dl, false);
+					}
 					
 					if (!scrapeOnly ){ // parg: removed this as hopefully multiple announce sources are handled better these days... && items.size() > 0) {
 						
@@ -358,8 +508,21 @@ public class Tracker {
 						dl.setScrapeResult(res);
 					}
 					
-					DHT.logInfo("DHT Announce finished for " + dl.getName()
-							+ " found " + items.size() + " Peers.");
+					if(scrapeHandler.getScrapedPeers() > 0 || scrapeHandler.getScrapedSeeds() > 0) {
+						journal(TrackerJournal.Event.SCRAPE, null, dl, scrapeHandler.getScrapedSeeds(), scrapeHandler.getScrapedPeers());
+					}
+					journal(TrackerJournal.Event.FINISHED, null, dl, items.size(), (int)(env.currentTimeMillis() - startTime));
+					record(TrackerRecorder.Event.FINISHED, dl, items.size(), (int)(env.currentTimeMillis() - startTime));
+					latencyStats.record(torrentClass, AnnounceLatencyStats.Phase.TOTAL, env.nanoTime() - startNanos);
+					if (announceEvent != null) {
+						TrackerEvents.commit(announceEvent, TrackerEvents.hash(dl.getTorrent().getHash()), torrentClass.name(),
+								items.size(), lookups, rpcsSent.get(), rpcsAnswered.get(), rpcsFailed.get(), queueWait, timedOut);
+					}
+					
+					if (LogPipeline.shouldLog(LogLevel.Info)) {
+						DHT.logInfo("DHT Announce finished for " + dl.getName()
+								+ " found " + items.size() + " Peers.");
+					}
 				}
 				
 				
@@ -367,7 +530,7 @@ public class Tracker {
 		}
 	}
 
-	private void scheduleTorrent (final Download dl, boolean shortDelay) {
+	void scheduleTorrent (final Download dl, boolean shortDelay) {
 		if (!running) {
 			return;
 		}
@@ -434,22 +597,23 @@ public class Tracker {
 					return; // still queued, no need to announce
 			}
 			t.setDelay(delay);
+			
+			journal(TrackerJournal.Event.SCHEDULED, null, dl, delay / 1000, t.scrapeOnly() ? 1 : 0);
+			record(TrackerRecorder.Event.SCHEDULED, dl, delay, t.scrapeOnly() ? 1 : 0);
+			
+			Object scheduleEvent = TrackerEvents.begin(TrackerEvents.Type.SCHEDULE);
+			if (scheduleEvent != null) {
+				TrackerEvents.commit(scheduleEvent, TrackerEvents.hash(dl.getTorrent().getHash()), t.scrapeOnly(), (long) delay);
+			}
 
-			DHT.logInfo("Tracker: scheduled "+(t.scrapeOnly() ? "scrape" : "announce")+" in "
-					+ t.getDelay(TimeUnit.SECONDS) + "sec for: " + dl.getName());
+			if (LogPipeline.shouldLog(LogLevel.Info)) {
+				DHT.logInfo("Tracker: scheduled "+(t.scrapeOnly() ? "scrape" : "announce")+" in "
+						+ t.getDelay(TimeUnit.SECONDS) + "sec for: " + dl.getName());
+			}
 			
 			if ( delay == 0 ){
 				
-				dispatcher.dispatch(
-						new AERunnable()
-						{
-							@Override
-							public void
-							runSupport()
-							{
-								announceDownload(dl);
-							}
-						});
+				dispatchAnnounce(dl, null);
 			}else{
 				
 				targetQueue.add(t);
@@ -457,29 +621,149 @@ public class Tracker {
 		}
 	}
 
+	/**
+	 * Re-announces torrents whose last announce was sent from a socket affected
+	 * by a network change. They are queued as due now so the concurrency
+	 * limits still apply, running announces are repeated once they finish.
+	 *
+	 * @param affected tests the bind address of a DHT type's RPC server
+	 * @return number of torrents that will be re-announced
+	 */
+	public int reannounce (BiPredicate<DHTtype, InetAddress> affected) {
+		return reannounceIf(t -> {
+			for (DHTtype type : DHTtype.values()) {
+				InetAddress socket = t.getAnnounceSocket(type);
+				if (socket != null && affected.test(type, socket)) {
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+
+	/**
+	 * Re-announces torrents that already announced without the DHT type, for
+	 * a DHT that came up after the tracker started. Torrents that haven't
+	 * announced yet will use it anyway.
+	 *
+	 * @return number of torrents that will be re-announced
+	 */
+	public int reannounceMissing (DHTtype type) {
+		return reannounceIf(t -> t.getAnnounceCount() > 0 && t.getAnnounceSocket(type) == null);
+	}
+
+	private int reannounceIf (Predicate<TrackedTorrent> filter) {
+		if (!running) {
+			return 0;
+		}
+		List<TrackedTorrent> hits = new ArrayList<>();
+		synchronized( trackedTorrents ){
+			for (TrackedTorrent t : trackedTorrents.values()) {
+				if (filter.test(t)) {
+					hits.add(t);
+				}
+			}
+			for (TrackedTorrent t : hits) {
+				if (t.isAnnouncing()) {
+					t.setReannounce();
+				}
+			}
+		}
+		for (TrackedTorrent t : hits) {
+			if (!t.isAnnouncing()) {
+				requeueNow(t);
+			}
+		}
+		return hits.size();
+	}
+
+	/**
+	 * Moves the torrent to the front of its queue, unlike scheduleTorrent with
+	 * a zero delay this does not bypass the concurrency limits
+	 */
+	private void requeueNow (TrackedTorrent t) {
+		Download dl = t.getDownload();
+		boolean scrapeOnly = t.scrapeOnly();
+		announceQueue.remove(t);
+		scrapeQueue.remove(t);
+		t.setDelay(0);
+		journal(TrackerJournal.Event.SCHEDULED, null, dl, 0, scrapeOnly ? 1 : 0);
+		record(TrackerRecorder.Event.SCHEDULED, dl, 0, scrapeOnly ? 1 : 0);
+		(scrapeOnly ? scrapeQueue : announceQueue).add(t);
+	}
+
+	/**
+	 * @return true for announces that can wait, i.e. seeding torrents that
+	 *         are not fetching metadata
+	 */
+	private static boolean isLowPriority (Download dl) {
+		return dl.isComplete(true) && !dl.getFlag(Download.FLAG_METADATA_DOWNLOAD);
+	}
+
+	private void deferForBudget (Download dl) {
+		budgetDeferrals.incrementAndGet();
+		if (LogPipeline.shouldLog(LogLevel.Debug)) {
+			DHT.logDebug("Tracker: DHT upload budget used up, deferring " + dl.getName());
+		}
+		scheduleTorrent(dl, true);
+	}
+
+	/**
+	 * Sets the announce up on the torrent's dispatch partition, announces of
+	 * different torrents are prepared in parallel while everything for one
+	 * torrent stays in order
+	 *
+	 * @param reservation concurrency slot taken by checkQueues, released once
+	 *            the announce is registered as running
+	 */
+	private void dispatchAnnounce (Download dl, AtomicInteger reservation) {
+		env.dispatch(partition(dl), () -> {
+			try {
+				announceDownload(dl);
+			} finally {
+				if (reservation != null) {
+					reservation.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/**
+	 * @return dispatch partition key derived from the infohash
+	 */
+	static int partition (Download dl) {
+		Torrent torrent = dl.getTorrent();
+		return torrent == null ? dl.hashCode() : Arrays.hashCode(torrent.getHash());
+	}
+
 	private void
 	checkQueues()
 	{
-		dispatcher.dispatch(
-			new AERunnable()
-			{
-				@Override
-				public void
-				runSupport()
-				{
-					checkQueuesSupport();
-				}
-			});
+		env.dispatch(this::checkQueuesSupport);
 	}
 	
-	private void checkQueuesSupport () {
+	void checkQueuesSupport () {
 		if (!running) {
 			return;
 		}
+		
+		for (DHTtype type : DHTtype.values()) {
+			DHT dht = plugin.getDHT(type);
+			if (dht != null) {
+				serverBalancer.prune(dht);
+			}
+		}
+
+		Object event = TrackerEvents.begin(TrackerEvents.Type.QUEUE_CHECK);
+		int startedAnnounces = 0;
+		int startedScrapes = 0;
+		
+			// over the upload budget only torrents that still need peers get to announce
+		boolean overBudget = budget.isExhausted();
 
 		while ( true ){
 			synchronized( trackedTorrents ){
-				if ( currentAnnounces.size() >= MAX_CONCURRENT_ANNOUNCES ){
+				if ( currentAnnounces.size() + reservedAnnounces.get() >= MAX_CONCURRENT_ANNOUNCES ){
 					break;
 				}
 			}
@@ -489,18 +773,24 @@ public class Tracker {
 			if ( t == null ){
 				break;
 			}
+			
+			journal(TrackerJournal.Event.DEQUEUED, null, t.getDownload(), (int)-t.getDelay(TimeUnit.MILLISECONDS), 0);
 		
 			Download dl = t.getDownload();
 			if ( t.isAnnouncing()){
 				scheduleTorrent(dl, false);
+			}else if ( overBudget && isLowPriority(dl)){
+				deferForBudget(dl);
 			}else{
-				announceDownload(dl);
+				reservedAnnounces.incrementAndGet();
+				dispatchAnnounce(dl, reservedAnnounces);
+				startedAnnounces++;
 			}
 		}
 		
 		while ( true ){
 			synchronized( trackedTorrents ){
-				if ( currentScrapes.size() >= MAX_CONCURRENT_SCRAPES ){
+				if ( currentScrapes.size() + reservedScrapes.get() >= MAX_CONCURRENT_SCRAPES ){
 					break;
 				}
 			}
@@ -510,14 +800,24 @@ public class Tracker {
 			if ( t == null ){
 				break;
 			}
+			
+			journal(TrackerJournal.Event.DEQUEUED, null, t.getDownload(), (int)-t.getDelay(TimeUnit.MILLISECONDS), 0);
 		
 			Download dl = t.getDownload();
 			if ( t.isAnnouncing()){
 				scheduleTorrent(dl, false);
+			}else if ( overBudget ){
+				deferForBudget(dl);
 			}else{
-				announceDownload(dl);
+				reservedScrapes.incrementAndGet();
+				dispatchAnnounce(dl, reservedScrapes);
+				startedScrapes++;
 			}
 		}
+		
+		if (event != null) {
+			TrackerEvents.commit(event, announceQueue.size(), scrapeQueue.size(), startedAnnounces, startedScrapes);
+		}
 	}
 
 	private void checkDownload (Download dl) {
@@ -605,15 +905,17 @@ public class Tracker {
 
 	}
 
-	private void addTrackedTorrent (Download dl, String reason) {
+	void addTrackedTorrent (Download dl, String reason) {
 		synchronized( trackedTorrents ){
 			if (trackedTorrents.containsKey(dl)) {
 				return;
 			}
 			
-			DHT.logInfo("Tracker: starting to track Torrent reason: " + reason
-						+ ", Torrent; " + dl.getName());
-			trackedTorrents.put(dl, new TrackedTorrent(dl));
+			if (LogPipeline.shouldLog(LogLevel.Info)) {
+				DHT.logInfo("Tracker: starting to track Torrent reason: " + reason
+							+ ", Torrent; " + dl.getName());
+			}
+			trackedTorrents.put(dl, new TrackedTorrent(dl, env::currentTimeMillis));
 		}
 		
 		scheduleTorrent(dl, true);
@@ -623,8 +925,10 @@ public class Tracker {
 		synchronized( trackedTorrents ){
 			TrackedTorrent tracked = trackedTorrents.remove(dl);
 			if ( tracked != null ) {
-				DHT.logInfo("Tracker: stop tracking of Torrent reason: " + reason
-						+ ", Torrent; " + dl.getName());
+				if (LogPipeline.shouldLog(LogLevel.Info)) {
+					DHT.logInfo("Tracker: stop tracking of Torrent reason: " + reason
+							+ ", Torrent; " + dl.getName());
+				}
 							
 				announceQueue.remove(tracked);
 				scrapeQueue.remove(tracked);
@@ -632,6 +936,113 @@ public class Tracker {
 		}
 	}
 
+	private void journal (TrackerJournal.Event event, DHTtype type, Download dl, int value, int value2) {
+		TrackerJournal j = journal;
+		if (j == null) {
+			return;
+		}
+		try {
+			j.record(event, type, dl.getTorrent().getHash(), value, value2);
+		} catch (Throwable e) {
+			// download may have lost its torrent in the meantime
+		}
+	}
+
+	private void record (TrackerRecorder.Event event, Download dl, int value, int value2) {
+		TrackerRecorder r = recorder;
+		if (r != null) {
+			r.record(event, dl, env.currentTimeMillis(), value, value2);
+		}
+	}
+
+	private void recordInput (TrackerRecorder.Event event, Download dl) {
+		TrackerRecorder r = recorder;
+		if (r != null) {
+			r.recordInput(event, dl, env.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * @return the announce latency histograms collected since the plugin was loaded
+	 */
+	public AnnounceLatencyStats getLatencyStats () {
+		return latencyStats;
+	}
+
+	public ServerBalancer getServerBalancer () {
+		return serverBalancer;
+	}
+
+	public boolean isRunning () {
+		return running;
+	}
+
+	public int getTrackedTorrentCount () {
+		synchronized( trackedTorrents ){
+			return trackedTorrents.size();
+		}
+	}
+
+	public int getAnnounceQueueSize () {
+		return announceQueue.size();
+	}
+
+	public int getScrapeQueueSize () {
+		return scrapeQueue.size();
+	}
+
+	public int getActiveAnnounceCount () {
+		synchronized( trackedTorrents ){
+			return currentAnnounces.size();
+		}
+	}
+
+	public int getActiveScrapeCount () {
+		synchronized( trackedTorrents ){
+			return currentScrapes.size();
+		}
+	}
+
+	public long getAnnouncesStarted () {
+		return announcesStarted.get();
+	}
+
+	public long getScrapesStarted () {
+		return scrapesStarted.get();
+	}
+
+	public long getTimeoutCount () {
+		return timeouts.get();
+	}
+
+	public BandwidthBudget getBudget () {
+		return budget;
+	}
+
+	/**
+	 * @return announces and scrapes pushed back because the upload budget was
+	 *         used up
+	 */
+	public long getBudgetDeferralCount () {
+		return budgetDeferrals.get();
+	}
+
+	/**
+	 * @return tasks waiting on the Tracker's dispatcher
+	 */
+	public int getDispatchBacklog () {
+		return env.getDispatchBacklog();
+	}
+
+	/**
+	 * Lock-free lookup, intended for UI code
+	 *
+	 * @return the tracked torrent for the download or null
+	 */
+	public TrackedTorrent getTrackedTorrent (Download dl) {
+		return trackedTorrents.get(dl);
+	}
+
 	public List<TrackedTorrent> getTrackedTorrentList () {
 		synchronized( trackedTorrents ){
 			return new ArrayList<>(trackedTorrents.values());
@@ -649,7 +1060,10 @@ public class Tracker {
 			download.removeAttributeListener(this, ta_networks,	DownloadAttributeListener.WRITTEN);
 			download.removeAttributeListener(this, ta_peer_sources,	DownloadAttributeListener.WRITTEN);
 			
-			PluginCoreUtils.unwrap( download ).getDownloadState().removeListener( this, DownloadManagerState.AT_PLUGIN_OPTIONS, DownloadManagerStateAttributeListener.WRITTEN );
+			DownloadManager core_dm = PluginCoreUtils.unwrapIfPossible( download );
+			if ( core_dm != null ){
+				core_dm.getDownloadState().removeListener( this, DownloadManagerState.AT_PLUGIN_OPTIONS, DownloadManagerStateAttributeListener.WRITTEN );
+			}
 
 			download.removeListener(this);
 			download.removeTrackerListener(this);
@@ -670,6 +1084,7 @@ public class Tracker {
 		 */
 		@Override
 		public void stateChanged (Download download, int old_state, int new_state) {
+			recordInput(TrackerRecorder.Event.STATE_CHANGED, download);
 			checkDownload(download);
 		}
 
@@ -683,6 +1098,7 @@ public class Tracker {
 		                                    TorrentAttribute attribute, int event_type) {
 			if (event_type == DownloadAttributeListener.WRITTEN
 					&& (attribute == ta_networks || attribute == ta_peer_sources)) {
+				recordInput(TrackerRecorder.Event.ATTRIBUTE, download);
 				checkDownload(download);
 			}
 
@@ -690,7 +1106,9 @@ public class Tracker {
 		
 		@Override
 		public void attributeEventOccurred(DownloadManager download, String attribute, int event_type){
-			checkDownload( PluginCoreUtils.wrap( download ));
+			Download dl = PluginCoreUtils.wrap( download );
+			recordInput(TrackerRecorder.Event.ATTRIBUTE, dl);
+			checkDownload( dl );
 		}
 
 		//---------------------[DownloadTrackerListener]---------------------------------
@@ -699,6 +1117,10 @@ public class Tracker {
 		 */
 		@Override
 		public void announceResult (DownloadAnnounceResult result) {
+			// our own results are a consequence of the recorded decisions, not an input
+			if (!(result instanceof DHTAnnounceResult)) {
+				recordInput(TrackerRecorder.Event.ANNOUNCE_RESULT, result.getDownload());
+			}
 			checkDownload(result.getDownload());
 		}
 
@@ -707,6 +1129,9 @@ public class Tracker {
 		 */
 		@Override
 		public void scrapeResult (DownloadScrapeResult result) {
+			if (!(result instanceof DHTScrapeResult)) {
+				recordInput(TrackerRecorder.Event.SCRAPE_RESULT, result.getDownload());
+			}
 			checkDownload(result.getDownload());
 		}
 
@@ -719,10 +1144,14 @@ public class Tracker {
 			download.addAttributeListener(this, ta_networks, DownloadAttributeListener.WRITTEN);
 			download.addAttributeListener(this, ta_peer_sources,DownloadAttributeListener.WRITTEN);
 			
-			PluginCoreUtils.unwrap( download ).getDownloadState().addListener( this, DownloadManagerState.AT_PLUGIN_OPTIONS, DownloadManagerStateAttributeListener.WRITTEN );
+			DownloadManager core_dm = PluginCoreUtils.unwrapIfPossible( download );
+			if ( core_dm != null ){
+				core_dm.getDownloadState().addListener( this, DownloadManagerState.AT_PLUGIN_OPTIONS, DownloadManagerStateAttributeListener.WRITTEN );
+			}
 			
 			download.addListener(this);
 			download.addTrackerListener(this);
+			recordInput(TrackerRecorder.Event.ADDED, download);
 			checkDownload(download);
 		}
 
@@ -731,6 +1160,7 @@ public class Tracker {
 		 */
 		@Override
 		public void downloadRemoved (Download download) {
+			recordInput(TrackerRecorder.Event.REMOVED, download);
 			cleanup(download);
 			removeTrackedTorrent(download, "Download was removed");
 		}
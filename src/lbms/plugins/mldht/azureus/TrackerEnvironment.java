@@ -0,0 +1,86 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.util.Random;
+
+/**
+ * Time and execution services used by the {@link Tracker}.
+ *
+ * The default {@link SystemTrackerEnvironment} maps them onto the wall clock,
+ * the plugin's executor, SimpleTimer, AsyncDispatcher and AEThread2, or
+ * virtual threads where the JVM has them (see {@link ThreadSupport}). A virtual
+ * time implementation lets the scheduling behaviour be simulated for days of
+ * operation in seconds.
+ */
+public interface TrackerEnvironment {
+
+	interface Cancellable {
+		void cancel ();
+	}
+
+	long currentTimeMillis ();
+
+	/**
+	 * @return a monotonic time in nanoseconds, for measuring durations
+	 */
+	long nanoTime ();
+
+	Random getRandom ();
+
+	Cancellable scheduleAtFixedRate (String name, long initialDelay, long period, Runnable task);
+
+	/**
+	 * One shot timer, the task must be short or hand off to {@link #execute}
+	 */
+	Cancellable schedule (String name, long delay, Runnable task);
+
+	/**
+	 * Runs the task asynchronously, tasks are executed one at a time in
+	 * submission order
+	 */
+	void dispatch (Runnable task);
+
+	/**
+	 * Runs the task asynchronously on one of several parallel queues, tasks
+	 * with the same partition key are executed one at a time in submission
+	 * order
+	 */
+	void dispatch (int partition, Runnable task);
+
+	/**
+	 * Runs the task on its own thread
+	 */
+	void execute (String name, Runnable task);
+
+	/**
+	 * @return number of dispatched tasks waiting to run, over all partitions
+	 */
+	int getDispatchBacklog ();
+
+	/**
+	 * Recreates the threads behind {@link #dispatch} after {@link #close},
+	 * called when the tracker starts. A new environment is already open
+	 */
+	void open ();
+
+	/**
+	 * Releases the threads behind {@link #dispatch}, called when the tracker
+	 * stops. Tasks dispatched until the next {@link #open} are dropped
+	 */
+	void close ();
+}
@@ -0,0 +1,248 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for the tracker.
+ *
+ * The event classes are generated at runtime through jdk.jfr.EventFactory, so
+ * the plugin still compiles for and runs on Java 8; on JVMs without JFR every
+ * call degrades to a null check. Callers obtain an event with {@link #begin},
+ * which returns null unless a recording has the event enabled, and only build
+ * the field values when the event is non-null.
+ *
+ * The event types are registered once when this class is loaded and must be
+ * removed with {@link #unregister} when the plugin unloads, otherwise a
+ * reload adds a second set.
+ */
+public final class TrackerEvents {
+
+	public enum Type {
+		ANNOUNCE("mldht.Announce", "DHT Announce", "Lookups and announces for one torrent",
+				field(String.class, "infoHash", "Info Hash"),
+				field(String.class, "torrentClass", "Torrent Class"),
+				field(int.class, "peersFound", "Peers Found"),
+				field(int.class, "lookups", "Lookups"),
+				field(int.class, "rpcsSent", "RPCs Sent"),
+				field(int.class, "rpcsAnswered", "RPCs Answered"),
+				field(int.class, "rpcsFailed", "RPCs Failed"),
+				timespan("queueWait", "Queue Wait"),
+				field(boolean.class, "timedOut", "Timed Out")),
+		LOOKUP("mldht.Lookup", "DHT Peer Lookup", "A single peer lookup on one DHT",
+				field(String.class, "infoHash", "Info Hash"),
+				field(String.class, "dhtType", "DHT Type"),
+				field(int.class, "peersFound", "Peers Found"),
+				field(int.class, "rpcsSent", "RPCs Sent"),
+				field(int.class, "rpcsAnswered", "RPCs Answered"),
+				field(int.class, "rpcsFailed", "RPCs Failed")),
+		INTERIM("mldht.InterimResult", "DHT Interim Result", "Early peers handed to the download before the lookups finished",
+				field(String.class, "infoHash", "Info Hash"),
+				field(int.class, "peersFound", "Peers Found")),
+		SCHEDULE("mldht.Schedule", "DHT Announce Scheduled", "Next announce or scrape of a torrent was scheduled",
+				field(String.class, "infoHash", "Info Hash"),
+				field(boolean.class, "scrapeOnly", "Scrape Only"),
+				timespan("delay", "Delay")),
+		QUEUE_CHECK("mldht.QueueCheck", "DHT Queue Check", "Dequeuing of due announces and scrapes",
+				field(int.class, "announceQueue", "Announce Queue"),
+				field(int.class, "scrapeQueue", "Scrape Queue"),
+				field(int.class, "announcesStarted", "Announces Started"),
+				field(int.class, "scrapesStarted", "Scrapes Started"));
+
+		final String		eventName;
+		final String		label;
+		final String		description;
+		final Object[][]	fields;
+		Object				factory;
+		/** jdk.jfr.EventType of the factory, checked before allocating an event */
+		Object				eventType;
+
+		private Type (String name, String label, String description, Object[]... fields) {
+			this.eventName = name;
+			this.label = label;
+			this.description = description;
+			this.fields = fields;
+		}
+	}
+
+	private static final String		CATEGORY	= "mlDHT";
+
+	private static final boolean	AVAILABLE;
+	private static volatile boolean	registered;
+	private static MethodHandle		newEvent;
+	private static MethodHandle		typeEnabled;
+	private static MethodHandle		unregisterFactory;
+	private static MethodHandle		eventBegin;
+	private static MethodHandle		eventSet;
+	private static MethodHandle		eventCommit;
+
+	static {
+		boolean available = false;
+		try {
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+			Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Class<?> eventTypeClass = Class.forName("jdk.jfr.EventType");
+
+			Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+			Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodHandle create = lookup.findStatic(factoryClass, "create",
+					MethodType.methodType(factoryClass, List.class, List.class));
+			newEvent = lookup.findVirtual(factoryClass, "newEvent", MethodType.methodType(eventClass))
+					.asType(MethodType.methodType(Object.class, Object.class));
+			MethodHandle getEventType = lookup.findVirtual(factoryClass, "getEventType", MethodType.methodType(eventTypeClass));
+			typeEnabled = lookup.findVirtual(eventTypeClass, "isEnabled", MethodType.methodType(boolean.class))
+					.asType(MethodType.methodType(boolean.class, Object.class));
+			unregisterFactory = lookup.findVirtual(factoryClass, "unregister", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+			eventBegin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+			eventSet = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+					.asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+			eventCommit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class))
+					.asType(MethodType.methodType(void.class, Object.class));
+
+			Class<?> nameAnnotation = Class.forName("jdk.jfr.Name");
+			Class<?> labelAnnotation = Class.forName("jdk.jfr.Label");
+			Class<?> descriptionAnnotation = Class.forName("jdk.jfr.Description");
+			Class<?> categoryAnnotation = Class.forName("jdk.jfr.Category");
+			Class<?> timespanAnnotation = Class.forName("jdk.jfr.Timespan");
+
+			for (Type type : Type.values()) {
+				List<Object> annotations = new ArrayList<>();
+				annotations.add(annotation.newInstance(nameAnnotation, type.eventName));
+				annotations.add(annotation.newInstance(labelAnnotation, type.label));
+				annotations.add(annotation.newInstance(descriptionAnnotation, type.description));
+				annotations.add(annotation.newInstance(categoryAnnotation, new String[] { CATEGORY }));
+
+				List<Object> fields = new ArrayList<>();
+				for (Object[] f : type.fields) {
+					List<Object> fieldAnnotations = new ArrayList<>();
+					fieldAnnotations.add(annotation.newInstance(labelAnnotation, f[2]));
+					if (f[3] != null) {
+						fieldAnnotations.add(annotation.newInstance(timespanAnnotation, f[3]));
+					}
+					fields.add(descriptor.newInstance(f[0], f[1], fieldAnnotations));
+				}
+
+				type.factory = create.invoke(annotations, fields);
+				type.eventType = getEventType.invoke(type.factory);
+			}
+			available = true;
+		} catch (Throwable e) {
+			// no JFR on this JVM (Java 8 before u262, or a JVM without the jdk.jfr module)
+		}
+		AVAILABLE = available;
+		registered = available;
+	}
+
+	private TrackerEvents () {}
+
+	private static Object[] field (Class<?> type, String name, String label) {
+		return new Object[] { type, name, label, null };
+	}
+
+	private static Object[] timespan (String name, String label) {
+		return new Object[] { long.class, name, label, "MILLISECONDS" };
+	}
+
+	/**
+	 * @return true if the events could be registered with this JVM's flight recorder
+	 */
+	public static boolean isAvailable () {
+		return AVAILABLE;
+	}
+
+	/**
+	 * Removes the event types from the flight recorder, {@link #begin} returns
+	 * null afterwards
+	 */
+	public static synchronized void unregister () {
+		if (!registered) {
+			return;
+		}
+		registered = false;
+		for (Type type : Type.values()) {
+			try {
+				unregisterFactory.invoke(type.factory);
+			} catch (Throwable e) {
+				// already gone
+			}
+		}
+	}
+
+	/**
+	 * Starts timing an event.
+	 *
+	 * @return the event, or null if JFR is unavailable or no recording has this
+	 *         event enabled
+	 */
+	public static Object begin (Type type) {
+		if (!registered) {
+			return null;
+		}
+		try {
+			// the type knows whether any recording enabled it, no event is allocated otherwise
+			if (!(boolean) typeEnabled.invoke(type.eventType)) {
+				return null;
+			}
+			Object event = newEvent.invoke(type.factory);
+			eventBegin.invoke(event);
+			return event;
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Sets the fields of an event obtained by {@link #begin} and commits it.
+	 * Values are given in the order the fields are declared in {@link Type}.
+	 */
+	public static void commit (Object event, Object... values) {
+		if (event == null) {
+			return;
+		}
+		try {
+			for (int i = 0; i < values.length; i++) {
+				eventSet.invoke(event, i, values[i]);
+			}
+			eventCommit.invoke(event);
+		} catch (Throwable e) {
+			// field type mismatch, drop the event rather than disturb the tracker
+		}
+	}
+
+	/**
+	 * @return the info hash of a torrent as hex string, for use as event field
+	 */
+	public static String hash (byte[] hash) {
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
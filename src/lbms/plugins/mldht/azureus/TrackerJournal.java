@@ -0,0 +1,238 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+import com.biglybt.core.util.Debug;
+
+/**
+ * Append-only binary journal of tracker announce/scrape lifecycle events.
+ *
+ * Records have a fixed size and are written into memory-mapped segment files
+ * of {@link #SEGMENT_SIZE} bytes, the oldest segments are deleted once more
+ * than {@link #MAX_SEGMENTS} exist. An unused record slot is all zeroes, so a
+ * reader stops at the first record with a timestamp of 0.
+ *
+ * <pre>
+ * header (16 bytes):  magic "MLDJ", int version, int record size, int reserved
+ * record (40 bytes):  long time, byte event, byte dht type (-1 = none),
+ *                     short reserved, int value, int value2, byte[20] info hash
+ * </pre>
+ *
+ * @see TrackerJournalReader
+ */
+public class TrackerJournal {
+
+	public enum Event {
+		/** value = delay in seconds, value2 = 1 for scrapes */
+		SCHEDULED,
+		/** value = ms the torrent waited past its due time */
+		DEQUEUED,
+		/** per DHT type */
+		LOOKUP_STARTED,
+		/** value = interim peer count */
+		INTERIM,
+		/** value = peers found, value2 = duration in ms */
+		FINISHED,
+		TIMED_OUT,
+		/** per DHT type, value = peers returned by the lookup */
+		PEERS_FOUND,
+		/** value = seeds, value2 = peers */
+		SCRAPE;
+
+		/* stored 1-based so that an empty slot can't be mistaken for a record */
+		byte code () {
+			return (byte) (ordinal() + 1);
+		}
+
+		static Event fromCode (int code) {
+			Event[] values = values();
+			return code > 0 && code <= values.length ? values[code - 1] : null;
+		}
+	}
+
+	public static final int		MAGIC			= 0x4D4C444A;	// MLDJ
+	public static final int		VERSION			= 1;
+	public static final int		HEADER_SIZE		= 16;
+	public static final int		RECORD_SIZE		= 40;
+	public static final int		HASH_LENGTH		= 20;
+
+	public static final int		SEGMENT_SIZE	= HEADER_SIZE + RECORD_SIZE * 100 * 1024;
+	public static final int		MAX_SEGMENTS	= 8;
+
+	static final String			FILE_PREFIX		= "journal-";
+	static final String			FILE_SUFFIX		= ".bin";
+
+	private final File			dir;
+	private long				segmentNumber;
+	private MappedByteBuffer	buffer;
+	private boolean				closed;
+
+	public TrackerJournal (File dir) throws IOException {
+		this.dir = dir;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create " + dir);
+		}
+		File[] existing = listSegments(dir);
+		if (existing.length > 0) {
+			segmentNumber = segmentNumber(existing[existing.length - 1]);
+		}
+		rotate();
+	}
+
+	public synchronized void record (Event event, DHTtype type, byte[] hash, int value, int value2) {
+		if (closed) {
+			return;
+		}
+		try {
+			if (buffer.remaining() < RECORD_SIZE) {
+				rotate();
+			}
+			buffer.putLong(System.currentTimeMillis());
+			buffer.put(event.code());
+			buffer.put(type == null ? -1 : (byte) type.ordinal());
+			buffer.putShort((short) 0);
+			buffer.putInt(value);
+			buffer.putInt(value2);
+			if (hash != null && hash.length >= HASH_LENGTH) {
+				buffer.put(hash, 0, HASH_LENGTH);
+			} else {
+				buffer.position(buffer.position() + HASH_LENGTH);
+			}
+		} catch (IOException e) {
+			closed = true;
+			Debug.out(e);
+		}
+	}
+
+	private void rotate () throws IOException {
+		if (buffer != null) {
+			buffer.force();
+		}
+		segmentNumber++;
+		File f = new File(dir, FILE_PREFIX + segmentNumber + FILE_SUFFIX);
+		try (FileChannel fc = FileChannel.open(f.toPath(), StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+		}
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(RECORD_SIZE);
+		buffer.putInt(0);
+
+		deleteOldSegments();
+	}
+
+	/**
+	 * Deletes segments beyond {@link #MAX_SEGMENTS}. Windows refuses to delete
+	 * a file while a mapping of it is still alive, which lasts until the
+	 * buffer is collected, those are left behind and retried on the next
+	 * rotation or at startup
+	 */
+	private void deleteOldSegments () {
+		File[] segments = listSegments(dir);
+		for (int i = 0; i < segments.length - MAX_SEGMENTS; i++) {
+			try {
+				Files.deleteIfExists(segments[i].toPath());
+			} catch (IOException e) {
+				// still mapped, see above
+			}
+		}
+	}
+
+	public synchronized void close () {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (buffer != null) {
+			buffer.force();
+			buffer = null;
+		}
+		deleteOldSegments();
+	}
+
+	/**
+	 * @return the journal segments in dir, oldest first
+	 */
+	static File[] listSegments (File dir) {
+		File[] files = dir.listFiles((d, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+		if (files == null) {
+			return new File[0];
+		}
+		Arrays.sort(files, (a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+		return files;
+	}
+
+	private static long segmentNumber (File f) {
+		String name = f.getName();
+		try {
+			return Long.parseLong(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Decodes the record at the buffer's position
+	 *
+	 * @return null if the slot is empty
+	 */
+	static Record read (ByteBuffer buf) {
+		long time = buf.getLong();
+		Event event = Event.fromCode(buf.get());
+		int type = buf.get();
+		buf.getShort();
+		int value = buf.getInt();
+		int value2 = buf.getInt();
+		byte[] hash = new byte[HASH_LENGTH];
+		buf.get(hash);
+		if (time == 0 || event == null) {
+			return null;
+		}
+		DHTtype dhtType = type >= 0 && type < DHTtype.values().length ? DHTtype.values()[type] : null;
+		return new Record(time, event, dhtType, value, value2, hash);
+	}
+
+	public static class Record {
+		public final long		time;
+		public final Event		event;
+		public final DHTtype	type;
+		public final int		value;
+		public final int		value2;
+		public final byte[]		hash;
+
+		Record (long time, Event event, DHTtype type, int value, int value2, byte[] hash) {
+			this.time = time;
+			this.event = event;
+			this.type = type;
+			this.value = value;
+			this.value2 = value2;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lbms.plugins.mldht.azureus.TrackerJournal.Record;
+
+/**
+ * Turns a {@link TrackerJournal} directory into per-torrent timelines and
+ * aggregate latency statistics.
+ *
+ * <pre>
+ * java -cp mlDHT.jar lbms.plugins.mldht.azureus.TrackerJournalReader &lt;journal dir&gt; [-timeline]
+ * </pre>
+ */
+public class TrackerJournalReader {
+
+	private final Map<String, List<Record>>	torrents	= new LinkedHashMap<>();
+	private int								recordCount;
+
+	public void read (File dir) throws IOException {
+		for (File f : TrackerJournal.listSegments(dir)) {
+			ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+			if (buf.remaining() < TrackerJournal.HEADER_SIZE || buf.getInt() != TrackerJournal.MAGIC) {
+				continue;
+			}
+			buf.getInt(); // version
+			int recordSize = buf.getInt();
+			buf.getInt();
+			if (recordSize != TrackerJournal.RECORD_SIZE) {
+				continue;
+			}
+			while (buf.remaining() >= recordSize) {
+				Record r = TrackerJournal.read(buf);
+				if (r == null) {
+					break;
+				}
+				torrents.computeIfAbsent(hex(r.hash), k -> new ArrayList<>()).add(r);
+				recordCount++;
+			}
+		}
+	}
+
+	public void printTimelines (PrintStream out) {
+		SimpleDateFormat fmt = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		for (Map.Entry<String, List<Record>> e : torrents.entrySet()) {
+			out.println(e.getKey());
+			for (Record r : e.getValue()) {
+				out.println("  " + fmt.format(new Date(r.time)) + " " + r.event
+						+ (r.type == null ? "" : " " + r.type.shortName) + " " + r.value + " " + r.value2);
+			}
+		}
+	}
+
+	public void printStatistics (PrintStream out) {
+		List<Long> announce = new ArrayList<>();
+		List<Long> queueWait = new ArrayList<>();
+		List<Long> firstPeers = new ArrayList<>();
+		int timeouts = 0;
+
+		for (List<Record> records : torrents.values()) {
+			long started = -1;
+			boolean gotPeers = false;
+			for (Record r : records) {
+				switch (r.event) {
+				case DEQUEUED:
+					queueWait.add((long) r.value);
+					break;
+				case LOOKUP_STARTED:
+					if (started < 0) {
+						started = r.time;
+						gotPeers = false;
+					}
+					break;
+				case INTERIM:
+				case PEERS_FOUND:
+					if (started >= 0 && !gotPeers && r.value > 0) {
+						firstPeers.add(r.time - started);
+						gotPeers = true;
+					}
+					break;
+				case FINISHED:
+					announce.add((long) r.value2);
+					started = -1;
+					break;
+				case TIMED_OUT:
+					timeouts++;
+					break;
+				default:
+				}
+			}
+		}
+
+		out.println(torrents.size() + " torrents, " + recordCount + " records, " + timeouts + " timeouts");
+		printDistribution(out, "announce duration", announce);
+		printDistribution(out, "queue wait", queueWait);
+		printDistribution(out, "time to first peer", firstPeers);
+	}
+
+	private static void printDistribution (PrintStream out, String name, List<Long> values) {
+		if (values.isEmpty()) {
+			out.println(name + ": no samples");
+			return;
+		}
+		long[] v = values.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(v);
+		out.println(name + ": n=" + v.length + " min=" + v[0] + "ms p50=" + percentile(v, 50)
+				+ "ms p90=" + percentile(v, 90) + "ms p99=" + percentile(v, 99) + "ms max="
+				+ v[v.length - 1] + "ms");
+	}
+
+	private static long percentile (long[] sorted, int p) {
+		int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+	}
+
+	private static String hex (byte[] hash) {
+		StringBuilder sb = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	public static void main (String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: TrackerJournalReader <journal dir> [-timeline]");
+			return;
+		}
+		TrackerJournalReader reader = new TrackerJournalReader();
+		reader.read(new File(args[0]));
+		if (args.length > 1 && args[1].equals("-timeline")) {
+			reader.printTimelines(System.out);
+		}
+		reader.printStatistics(System.out);
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.biglybt.core.util.Debug;
+import com.biglybt.pif.download.Download;
+import com.biglybt.pif.download.DownloadAnnounceResult;
+import com.biglybt.pif.download.DownloadScrapeResult;
+import com.biglybt.pif.torrent.TorrentAttribute;
+
+/**
+ * Records the download events the {@link Tracker} reacts to and the scheduling
+ * decisions it makes, so that real event streams (bulk starts, tracker
+ * outages, queue rotation) can be replayed against other builds.
+ *
+ * The file is a gzip compressed stream of variable length records. Downloads
+ * are identified by a sequential id, neither info hashes nor names are
+ * recorded. Input events carry a snapshot of everything the Tracker looks at
+ * (effective state and {@link #FLAG_COMPLETE flags}), so a replay does not
+ * need the original downloads.
+ *
+ * <pre>
+ * header:  int magic "MLDR", int version, long start time
+ * record:  byte event, varlong ms since the previous record, varint download id,
+ *          varint value, varint value2
+ * </pre>
+ */
+public class TrackerRecorder implements Closeable {
+
+	public enum Event {
+		/** value = effective state, value2 = flags */
+		ADDED,
+		REMOVED,
+		/** value = effective state, value2 = flags */
+		STATE_CHANGED,
+		/** network or peer source attribute written, value = effective state, value2 = flags */
+		ATTRIBUTE,
+		/** result of the regular tracker, value = effective state, value2 = flags */
+		ANNOUNCE_RESULT,
+		/** result of the regular tracker, value = effective state, value2 = flags */
+		SCRAPE_RESULT,
+		/** value = delay in ms, value2 = 1 for scrapes */
+		SCHEDULED,
+		/** value = ms the torrent waited past its due time, value2 = announces running */
+		ANNOUNCE_STARTED,
+		/** value = ms the torrent waited past its due time, value2 = scrapes running */
+		SCRAPE_STARTED,
+		/** value = peers found, value2 = duration in ms */
+		FINISHED;
+
+		public boolean isInput () {
+			return ordinal() <= SCRAPE_RESULT.ordinal();
+		}
+	}
+
+	public static final int	FLAG_COMPLETE		= 1;
+	public static final int	FLAG_METADATA		= 2;
+	public static final int	FLAG_PRIVATE		= 4;
+	public static final int	FLAG_PUBLIC_NETWORK	= 8;
+	public static final int	FLAG_DHT_SOURCE		= 16;
+	/** no announce result or an error from the regular tracker */
+	public static final int	FLAG_ANNOUNCE_ERROR	= 32;
+	public static final int	FLAG_SCRAPE_ERROR	= 64;
+
+	public static final int	MAGIC				= 0x4D4C4452;	// MLDR
+	public static final int	VERSION				= 1;
+
+	private final DataOutputStream		out;
+	private final TorrentAttribute		networks;
+	private final TorrentAttribute		sources;
+	private final Map<Download, Integer>	ids		= new HashMap<>();
+	private int							nextId;
+	private long						lastTime;
+	private boolean						closed;
+
+	public TrackerRecorder (File file, long startTime, TorrentAttribute networks, TorrentAttribute sources)
+			throws IOException {
+		this.networks = networks;
+		this.sources = sources;
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create " + dir);
+		}
+		out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), 64 * 1024, true)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(startTime);
+		lastTime = startTime;
+	}
+
+	/**
+	 * Records an input event together with a snapshot of the download
+	 */
+	public void recordInput (Event event, Download dl, long time) {
+		int state;
+		int flags;
+		try {
+			state = MlDHTPlugin.getEffectiveDownloadState(dl);
+			flags = flags(dl);
+		} catch (Throwable e) {
+			// download is being torn down
+			state = Download.ST_STOPPED;
+			flags = 0;
+		}
+		record(event, dl, time, state, flags);
+	}
+
+	public synchronized void record (Event event, Download dl, long time, int value, int value2) {
+		if (closed) {
+			return;
+		}
+		try {
+			Integer id = event == Event.REMOVED ? ids.remove(dl) : ids.get(dl);
+			if (id == null) {
+				if (event == Event.REMOVED) {
+					return;
+				}
+				id = nextId++;
+				ids.put(dl, id);
+			}
+			out.writeByte(event.ordinal());
+			writeVarLong(Math.max(0, time - lastTime));
+			lastTime = Math.max(lastTime, time);
+			writeVarLong(id);
+			writeVarLong(value & 0xFFFFFFFFL);
+			writeVarLong(value2 & 0xFFFFFFFFL);
+		} catch (IOException e) {
+			closed = true;
+			Debug.out(e);
+		}
+	}
+
+	/**
+	 * Pushes the buffered events through the compressor to disk so a crash only
+	 * loses what was recorded since the last flush
+	 */
+	public synchronized void flush () {
+		if (closed) {
+			return;
+		}
+		try {
+			out.flush();
+		} catch (IOException e) {
+			closed = true;
+			Debug.out(e);
+		}
+	}
+
+	private int flags (Download dl) {
+		int flags = 0;
+		if (dl.isComplete(true)) {
+			flags |= FLAG_COMPLETE;
+		}
+		if (dl.getFlag(Download.FLAG_METADATA_DOWNLOAD)) {
+			flags |= FLAG_METADATA;
+		}
+		if (dl.getTorrent() == null || dl.getTorrent().isPrivate()) {
+			flags |= FLAG_PRIVATE;
+		}
+		if (contains(dl.getListAttribute(networks), "Public")) {
+			flags |= FLAG_PUBLIC_NETWORK;
+		}
+		if (contains(dl.getListAttribute(sources), Tracker.PEER_SOURCE_NAME)) {
+			flags |= FLAG_DHT_SOURCE;
+		}
+		DownloadAnnounceResult announce = dl.getLastAnnounceResult();
+		if (announce == null || announce.getResponseType() == DownloadAnnounceResult.RT_ERROR) {
+			flags |= FLAG_ANNOUNCE_ERROR;
+		}
+		DownloadScrapeResult scrape = dl.getLastScrapeResult();
+		if (scrape != null && scrape.getResponseType() == DownloadScrapeResult.RT_ERROR) {
+			flags |= FLAG_SCRAPE_ERROR;
+		}
+		return flags;
+	}
+
+	private static boolean contains (String[] values, String value) {
+		if (values != null) {
+			for (String v : values) {
+				if (v.equalsIgnoreCase(value)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void writeVarLong (long v) throws IOException {
+		while ((v & ~0x7FL) != 0) {
+			out.writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.writeByte((int) v);
+	}
+
+	@Override
+	public synchronized void close () {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			out.close();
+		} catch (IOException e) {
+			Debug.out(e);
+		}
+	}
+
+	public static class Record {
+		public final long	time;
+		public final Event	event;
+		public final int	id;
+		public final int	value;
+		public final int	value2;
+
+		Record (long time, Event event, int id, int value, int value2) {
+			this.time = time;
+			this.event = event;
+			this.id = id;
+			this.value = value;
+			this.value2 = value2;
+		}
+	}
+
+	public static class Reader implements Closeable {
+
+		private final DataInputStream	in;
+		private final long				startTime;
+		private long					time;
+
+		public Reader (File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 64 * 1024)));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException(file + " is not a tracker recording");
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				in.close();
+				throw new IOException("unsupported recording version " + version);
+			}
+			startTime = in.readLong();
+			time = startTime;
+		}
+
+		public long getStartTime () {
+			return startTime;
+		}
+
+		/**
+		 * @return the next record or null at the end of the recording, a
+		 *         truncated last record (unclean shutdown) is ignored
+		 */
+		public Record next () throws IOException {
+			try {
+				int code = in.read();
+				if (code < 0) {
+					return null;
+				}
+				Event[] events = Event.values();
+				if (code >= events.length) {
+					throw new IOException("corrupt recording, unknown event " + code);
+				}
+				time += readVarLong();
+				int id = (int) readVarLong();
+				int value = (int) readVarLong();
+				int value2 = (int) readVarLong();
+				return new Record(time, events[code], id, value, value2);
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+
+		private long readVarLong () throws IOException {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = in.readUnsignedByte();
+				v |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return v;
+				}
+			}
+			throw new IOException("corrupt recording, varint too long");
+		}
+
+		@Override
+		public void close () throws IOException {
+			in.close();
+		}
+	}
+}
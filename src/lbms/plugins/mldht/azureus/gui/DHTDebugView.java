@@ -16,7 +16,26 @@
  */
 package lbms.plugins.mldht.azureus.gui;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import lbms.plugins.mldht.azureus.AnnounceLatencyStats;
+import lbms.plugins.mldht.azureus.InstrumentedScheduledExecutor;
+import lbms.plugins.mldht.azureus.LatencyHistogram;
+import lbms.plugins.mldht.azureus.LogPipeline;
 import lbms.plugins.mldht.azureus.MlDHTPlugin;
+import lbms.plugins.mldht.azureus.ServerBalancer;
+import lbms.plugins.mldht.azureus.Tracker;
+import lbms.plugins.mldht.azureus.stats.DHTStatsSnapshot;
+import lbms.plugins.mldht.azureus.stats.RPCHistory;
+import lbms.plugins.mldht.azureus.stats.StatsPublisher;
+import lbms.plugins.mldht.azureus.stats.StatsSnapshot;
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.tasks.Task;
+import lbms.plugins.mldht.kad.tasks.TaskManager;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
@@ -25,21 +44,87 @@ import org.eclipse.swt.events.ControlEvent;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Group;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.swt.widgets.TableItem;
+import com.biglybt.core.util.SimpleTimer;
+import com.biglybt.core.util.TimerEventPeriodic;
 import com.biglybt.ui.swt.pif.UISWTViewEvent;
 import com.biglybt.ui.swt.pif.UISWTViewEventListener;
 
 /**
+ * Profiling dashboard: slowest in-flight tasks, RPC timeout ratios, Tracker
+ * queues and queue wait times, executor and dispatcher backlogs and the
+ * lookups per RPC server of multihomed DHTs.
+ *
+ * Everything is sampled on a timer thread into an immutable {@link Sample}
+ * while the view is shown, the SWT thread only copies texts into widgets.
+ *
  * @author Leonard
  *
  */
 public class DHTDebugView implements UISWTViewEventListener{
 	public static final String	VIEWID			= "mldht_DebugView";
 
+	private static final int	REFRESH_INTERVAL	= 2000;
+	private static final int	SLOW_TASK_ROWS		= 15;
+	private static final int	METHODS				= 4;
+	private static final String[]	METHOD_NAMES	= { "Ping:", "Find Node:", "Get Peers:", "Announce:" };
+
 	private MlDHTPlugin			plugin;
 	private boolean				isCreated		= false;
 	private boolean				isActivated		= false;
 	private boolean				isRunning		= false;
 
+	private Display				display;
+	private TimerEventPeriodic	refreshTimer;
+
+	private Table				slowTaskTable;
+	private Table				serverTable;
+	private Label[][]			timeoutLabels;
+	private Label				trackerQueues;
+	private Label				trackerActive;
+	private Label				trackerBacklog;
+	private Label[][]			queueWaitLabels;
+	private Label[][]			executorLabels;
+	private Label				logBacklog;
+
+	/**
+	 * Texts for all widgets, captured off the SWT thread
+	 */
+	private static final class Sample {
+		final List<String[]>	slowTasks		= new ArrayList<>();
+		final List<String[]>	servers			= new ArrayList<>();
+		/** [method][dht type] */
+		final String[][]		timeouts		= new String[METHODS][DHTtype.values().length];
+		String					trackerQueues	= "-";
+		String					trackerActive	= "-";
+		String					trackerBacklog	= "-";
+		/** [torrent class][percentiles, max, samples] */
+		final String[][]		queueWait		= new String[AnnounceLatencyStats.TorrentClass.values().length][];
+		/** [executor][ExecutorColumns] */
+		final List<String[]>	executors		= new ArrayList<>();
+		String					logBacklog		= "-";
+	}
+
+	/**
+	 * An in-flight task and how long it has been running
+	 */
+	private static final class RunningTask {
+		final long		age;
+		final DHTtype	type;
+		final Task		task;
+
+		RunningTask (long age, DHTtype type, Task task) {
+			this.age = age;
+			this.type = type;
+			this.task = task;
+		}
+	}
+
 	public DHTDebugView (MlDHTPlugin _plugin) {
 		this.plugin = _plugin;
 		//isRunning = plugin.getDHTs().isRunning();
@@ -78,26 +163,21 @@ public class DHTDebugView implements UISWTViewEventListener{
 		return true;
 	}
 
-	/**
-     *
-     */
-    private void delete () {
-	    // TODO Auto-generated method stub
-
-    }
+	private void delete () {
+		deactivate();
+		slowTaskTable = null;
+		serverTable = null;
+		isCreated = false;
+	}
 
-	/**
-     * @param data
-     */
-    private void initialize (Composite comp) {
-    	GridData gridData = new GridData(GridData.FILL_BOTH);
+	private void initialize (Composite comp) {
+		display = comp.getDisplay();
+		GridData gridData = new GridData(GridData.FILL_BOTH);
 		comp.setLayoutData(gridData);
 
-
 		final ScrolledComposite scrollComposite = new ScrolledComposite(comp, SWT.V_SCROLL | SWT.H_SCROLL);
 
-
-	    final Composite comp_on_sc = new Composite(scrollComposite,SWT.None);
+		final Composite comp_on_sc = new Composite(scrollComposite,SWT.None);
 
 		GridLayout gl = new GridLayout(2, false);
 		comp_on_sc.setLayout(gl);
@@ -107,34 +187,333 @@ public class DHTDebugView implements UISWTViewEventListener{
 
 		//-------------------------------------
 
+		createTimeoutGroup(comp_on_sc);
+		createExecutorGroup(comp_on_sc);
+		createTrackerGroup(comp_on_sc);
+		createSlowTaskTable(comp_on_sc);
+		createServerTable(comp_on_sc);
 
 		//-------------------------------------
 
 		scrollComposite.setContent(comp_on_sc);
-	    scrollComposite.setExpandVertical(true);
-	    scrollComposite.setExpandHorizontal(true);
+		scrollComposite.setExpandVertical(true);
+		scrollComposite.setExpandHorizontal(true);
 		scrollComposite.addControlListener(new ControlAdapter() {
 			@Override
 			public void controlResized(ControlEvent e) {
 				scrollComposite.setMinSize(comp_on_sc.computeSize(SWT.DEFAULT, SWT.DEFAULT));
 			}
 		});
+	}
 
-    }
+	private void createTimeoutGroup (Composite comp) {
+		Group grp = new Group(comp, SWT.None);
+		grp.setText("RPC Timeout Ratio (total / last 5 min)");
 
-	/**
-     *
-     */
-    private void deactivate () {
-	    // TODO Auto-generated method stub
+		DHTtype[] types = DHTtype.values();
+		grp.setLayout(new GridLayout(types.length + 1, false));
+		grp.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
-    }
+		//empty label
+		new Label(grp, SWT.None);
+		for (DHTtype type : types) {
+			new Label(grp, SWT.None).setText(type.shortName);
+		}
+		timeoutLabels = new Label[METHODS][types.length];
+		for (int i = 0; i < METHODS; i++) {
+			new Label(grp, SWT.None).setText(METHOD_NAMES[i]);
+			for (int j = 0; j < types.length; j++) {
+				timeoutLabels[i][j] = valueLabel(grp, 120);
+			}
+		}
+	}
 
-	/**
-     *
-     */
-    private void activate () {
-	    // TODO Auto-generated method stub
+	private void createExecutorGroup (Composite comp) {
+		Group grp = new Group(comp, SWT.None);
+		grp.setText("Executors");
+		grp.setLayout(new GridLayout(ExecutorColumns.HEADERS.length + 1, false));
+		grp.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+		//empty label
+		new Label(grp, SWT.None);
+		for (String header : ExecutorColumns.HEADERS) {
+			new Label(grp, SWT.None).setText(header);
+		}
+		List<InstrumentedScheduledExecutor> executors = plugin.getExecutors();
+		executorLabels = new Label[executors.size()][ExecutorColumns.HEADERS.length];
+		for (int i = 0; i < executors.size(); i++) {
+			new Label(grp, SWT.None).setText(executors.get(i).getName() + ":");
+			for (int j = 0; j < ExecutorColumns.HEADERS.length; j++) {
+				executorLabels[i][j] = valueLabel(grp, ExecutorColumns.WIDTHS[j]);
+			}
+		}
+
+		new Label(grp, SWT.None).setText("Log backlog:");
+		logBacklog = valueLabel(grp, 60);
+		((GridData) logBacklog.getLayoutData()).horizontalSpan = ExecutorColumns.HEADERS.length;
+	}
+
+	private static final class ExecutorColumns {
+		static final String[]	HEADERS	= { "Pending/Running/Periodic", "Executed", "Start Lag p50/p99", "Run Time p50/p99/max" };
+		static final int[]		WIDTHS	= { 130, 70, 110, 150 };
+	}
+
+	private void createTrackerGroup (Composite comp) {
+		Group grp = new Group(comp, SWT.None);
+		grp.setText("Tracker");
+
+		GridLayout gl = new GridLayout(TrackerQueueColumns.HEADERS.length + 1, false);
+		grp.setLayout(gl);
+		GridData gd = new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan = 2;
+		grp.setLayoutData(gd);
+
+		new Label(grp, SWT.None).setText("Queued announces/scrapes:");
+		trackerQueues = valueLabel(grp, 120);
+		spanRest(trackerQueues);
+		new Label(grp, SWT.None).setText("Running announces/scrapes:");
+		trackerActive = valueLabel(grp, 120);
+		spanRest(trackerActive);
+		new Label(grp, SWT.None).setText("Dispatcher backlog (tracker/plugin):");
+		trackerBacklog = valueLabel(grp, 120);
+		spanRest(trackerBacklog);
+
+		new Label(grp, SWT.None).setText("Queue wait:");
+		for (String header : TrackerQueueColumns.HEADERS) {
+			new Label(grp, SWT.None).setText(header);
+		}
+		AnnounceLatencyStats.TorrentClass[] classes = AnnounceLatencyStats.TorrentClass.values();
+		queueWaitLabels = new Label[classes.length][TrackerQueueColumns.HEADERS.length];
+		for (int i = 0; i < classes.length; i++) {
+			new Label(grp, SWT.None).setText(classes[i].name().toLowerCase().replace('_', ' ') + ":");
+			for (int j = 0; j < queueWaitLabels[i].length; j++) {
+				queueWaitLabels[i][j] = valueLabel(grp, 80);
+			}
+		}
+	}
+
+	private static final class TrackerQueueColumns {
+		static final double[]	PERCENTILES	= { 50, 90, 99 };
+		static final String[]	HEADERS		= { "p50", "p90", "p99", "max", "Samples" };
+	}
+
+	private void createSlowTaskTable (Composite comp) {
+		slowTaskTable = createTable(comp, 200,
+				new String[] { "DHT", "Type", "Key", "Age", "Active Requests", "Messages" },
+				new int[] { 50, 80, 280, 70, 90, 90 });
+	}
+
+	private void createServerTable (Composite comp) {
+		serverTable = createTable(comp, 80,
+				new String[] { "DHT", "Address", "Node ID", "Active RPCs", "Lookups Running", "Lookups Started" },
+				new int[] { 50, 160, 280, 80, 100, 100 });
+	}
+
+	private static Table createTable (Composite comp, int minimumHeight, String[] headers, int[] widths) {
+		Table table = new Table(comp, SWT.BORDER | SWT.FULL_SELECTION);
+
+		GridData gd = new GridData(GridData.FILL_BOTH);
+		gd.horizontalSpan = 2;
+		gd.minimumHeight = minimumHeight;
+		table.setLayoutData(gd);
+
+		for (int i = 0; i < headers.length; i++) {
+			TableColumn col = new TableColumn(table, SWT.None);
+			col.setText(headers[i]);
+			col.setWidth(widths[i]);
+		}
+		table.setHeaderVisible(true);
+		return table;
+	}
+
+	private static Label valueLabel (Composite parent, int width) {
+		Label l = new Label(parent, SWT.None);
+		l.setText("-");
+		GridData gd = new GridData();
+		gd.widthHint = width;
+		l.setLayoutData(gd);
+		return l;
+	}
+
+	private static void spanRest (Label label) {
+		((GridData) label.getLayoutData()).horizontalSpan = TrackerQueueColumns.HEADERS.length;
+	}
+
+	private void deactivate () {
+		if (refreshTimer != null) {
+			refreshTimer.cancel();
+			refreshTimer = null;
+		}
+		isActivated = false;
+	}
+
+	private void activate () {
+		if (!isCreated || isActivated || display == null) {
+			return;
+		}
+		isActivated = true;
+		refreshTimer = SimpleTimer.addPeriodicEvent("mlDHT:profiler", REFRESH_INTERVAL, event -> refresh());
+	}
+
+	private void refresh () {
+		final Sample sample;
+		try {
+			sample = sample();
+		} catch (Throwable e) {
+			// plugin is being unloaded
+			return;
+		}
+		if (display == null || display.isDisposed()) {
+			return;
+		}
+		display.asyncExec(new SWTSafeRunnable() {
+			@Override
+			public void runSafe () {
+				if (isActivated && slowTaskTable != null && !slowTaskTable.isDisposed()) {
+					apply(sample);
+				}
+			}
+		});
+	}
+
+	private Sample sample () {
+		Sample s = new Sample();
+		long now = System.currentTimeMillis();
+
+		List<RunningTask> tasks = new ArrayList<>();
+		for (DHTtype type : DHTtype.values()) {
+			DHT dht = plugin.getDHT(type);
+			if (dht == null || !dht.isRunning()) {
+				continue;
+			}
+			TaskManager tman = dht.getTaskManager();
+			for (Task t : tman.getActiveTasks()) {
+				long start = t.getStartTime();
+				if (start > 0) {
+					tasks.add(new RunningTask(now - start, type, t));
+				}
+			}
+		}
+		tasks.sort((a, b) -> Long.compare(b.age, a.age));
+		for (int i = 0; i < Math.min(SLOW_TASK_ROWS, tasks.size()); i++) {
+			RunningTask r = tasks.get(i);
+			String[] task = DHTView.taskRow(r.task);
+			s.slowTasks.add(new String[] { r.type.shortName, task[0], task[2],
+					DHTView.formatLatency(r.age * 1000), task[3], task[4] });
+		}
 
-    }
+		StatsPublisher publisher = plugin.getStatsPublisher();
+		StatsSnapshot stats = publisher == null ? null : publisher.getSnapshot();
+		for (DHTtype type : DHTtype.values()) {
+			DHTStatsSnapshot dht = stats == null ? null : stats.getDHT(type);
+			RPCHistory history = publisher == null ? null : publisher.getHistory(type);
+			for (int m = 0; m < METHODS; m++) {
+				Method method = Method.values()[m];
+				String total = dht == null || !dht.running ? "-" : ratio(dht.timeouts[m], dht.sentRequests[m]);
+				String recent = history == null ? "-" : ratio(
+						sum(history.get(RPCHistory.Metric.TIMEOUTS, method, RPCHistory.Window.FIVE_MINUTES)),
+						sum(history.get(RPCHistory.Metric.REQUESTS, method, RPCHistory.Window.FIVE_MINUTES)));
+				s.timeouts[m][type.ordinal()] = total + " / " + recent;
+			}
+		}
+
+		Tracker tracker = plugin.getTracker();
+		AnnounceLatencyStats.TorrentClass[] classes = AnnounceLatencyStats.TorrentClass.values();
+		for (int i = 0; i < classes.length; i++) {
+			LatencyHistogram h = tracker == null ? null
+					: tracker.getLatencyStats().getHistogram(classes[i], AnnounceLatencyStats.Phase.QUEUE_WAIT);
+			String[] row = new String[TrackerQueueColumns.HEADERS.length];
+			for (int j = 0; j < TrackerQueueColumns.PERCENTILES.length; j++) {
+				row[j] = h == null || h.getCount() == 0 ? "-"
+						: DHTView.formatLatency(h.getValueAtPercentile(TrackerQueueColumns.PERCENTILES[j]));
+			}
+			row[row.length - 2] = h == null || h.getCount() == 0 ? "-" : DHTView.formatLatency(h.getMax());
+			row[row.length - 1] = h == null ? "0" : String.valueOf(h.getCount());
+			s.queueWait[i] = row;
+		}
+		if (tracker != null) {
+			List<ServerBalancer.ServerLoad> servers = tracker.getServerBalancer().getServers();
+			servers.sort(Comparator.comparing((ServerBalancer.ServerLoad l) -> l.type)
+					.thenComparing(l -> String.valueOf(l.server.getBindAddress())));
+			for (ServerBalancer.ServerLoad l : servers) {
+				s.servers.add(new String[] { l.type.shortName, String.valueOf(l.server.getBindAddress()),
+						l.server.getDerivedID().toString(true), String.valueOf(l.server.getNumActiveRPCCalls()),
+						String.valueOf(l.getLookupsInFlight()), String.valueOf(l.getLookupsStarted()) });
+			}
+			s.trackerQueues = tracker.getAnnounceQueueSize() + " / " + tracker.getScrapeQueueSize();
+			s.trackerActive = tracker.getActiveAnnounceCount() + " / " + tracker.getActiveScrapeCount();
+		}
+		s.trackerBacklog = (tracker == null ? "-" : String.valueOf(tracker.getDispatchBacklog())) + " / "
+				+ plugin.getDispatcherBacklog();
+
+		for (InstrumentedScheduledExecutor executor : plugin.getExecutors()) {
+			LatencyHistogram lag = executor.getStartLag();
+			LatencyHistogram run = executor.getRunTimes();
+			s.executors.add(new String[] {
+					executor.getPendingCount() + " / " + executor.getRunningCount() + " / " + executor.getPeriodicCount(),
+					String.valueOf(executor.getExecutedCount()),
+					lag.getCount() == 0 ? "-" : DHTView.formatLatency(lag.getValueAtPercentile(50)) + " / "
+							+ DHTView.formatLatency(lag.getValueAtPercentile(99)),
+					run.getCount() == 0 ? "-" : DHTView.formatLatency(run.getValueAtPercentile(50)) + " / "
+							+ DHTView.formatLatency(run.getValueAtPercentile(99)) + " / " + DHTView.formatLatency(run.getMax()) });
+		}
+
+		LogPipeline log = plugin.getLogPipeline();
+		if (log != null) {
+			s.logBacklog = String.valueOf(log.getBacklog());
+		}
+		return s;
+	}
+
+	private static String ratio (double timeouts, double requests) {
+		return requests <= 0 ? "-" : String.format("%.1f%%", 100.0 * timeouts / requests);
+	}
+
+	private static double sum (float[] values) {
+		double sum = 0;
+		for (float v : values) {
+			sum += v;
+		}
+		return sum;
+	}
+
+	private void apply (Sample s) {
+		for (int i = 0; i < METHODS; i++) {
+			for (int j = 0; j < timeoutLabels[i].length; j++) {
+				DHTView.setText(timeoutLabels[i][j], s.timeouts[i][j]);
+			}
+		}
+		DHTView.setText(trackerQueues, s.trackerQueues);
+		DHTView.setText(trackerActive, s.trackerActive);
+		DHTView.setText(trackerBacklog, s.trackerBacklog);
+		for (int i = 0; i < queueWaitLabels.length; i++) {
+			for (int j = 0; j < queueWaitLabels[i].length; j++) {
+				DHTView.setText(queueWaitLabels[i][j], s.queueWait[i][j]);
+			}
+		}
+		for (int i = 0; i < Math.min(executorLabels.length, s.executors.size()); i++) {
+			for (int j = 0; j < executorLabels[i].length; j++) {
+				DHTView.setText(executorLabels[i][j], s.executors.get(i)[j]);
+			}
+		}
+		DHTView.setText(logBacklog, s.logBacklog);
+
+		setRows(slowTaskTable, s.slowTasks);
+		setRows(serverTable, s.servers);
+	}
+
+	private static void setRows (Table table, List<String[]> rows) {
+		if (table.getItemCount() != rows.size()) {
+			table.setItemCount(rows.size());
+		}
+		for (int i = 0; i < rows.size(); i++) {
+			TableItem item = table.getItem(i);
+			String[] row = rows.get(i);
+			for (int c = 0; c < row.length; c++) {
+				if (!row[c].equals(item.getText(c))) {
+					item.setText(c, row[c]);
+				}
+			}
+		}
+	}
 }
@@ -16,7 +16,15 @@
  */
 package lbms.plugins.mldht.azureus.gui;
 
+import lbms.plugins.mldht.azureus.AnnounceLatencyStats;
+import lbms.plugins.mldht.azureus.BandwidthBudget;
+import lbms.plugins.mldht.azureus.DHTStartupTimings;
+import lbms.plugins.mldht.azureus.LatencyHistogram;
+import lbms.plugins.mldht.azureus.LogPipeline;
 import lbms.plugins.mldht.azureus.MlDHTPlugin;
+import lbms.plugins.mldht.azureus.Tracker;
+import lbms.plugins.mldht.azureus.stats.RPCHistory;
+import lbms.plugins.mldht.azureus.stats.StatsPublisher;
 import lbms.plugins.mldht.kad.DHT;
 import lbms.plugins.mldht.kad.DHTStats;
 import lbms.plugins.mldht.kad.DHTStatsListener;
@@ -29,6 +37,8 @@ import lbms.plugins.mldht.kad.tasks.*;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
@@ -71,6 +81,9 @@ public class DHTView implements UISWTViewEventListener {
 	private Formatters			formatters;
 
 	private DHTStatsListener	dhtStatsListener;
+	private final AtomicBoolean	updatePending	= new AtomicBoolean();
+	private volatile DHTStats	latestStats;
+	private final LatencyHistogram	uiUpdateTimes	= new LatencyHistogram();
 
 	private Label				peerCount;
 	private Label				taskCount;
@@ -79,6 +92,8 @@ public class DHTView implements UISWTViewEventListener {
 	private Label				sentPacketCount;
 	private Label				receivedPacketCount;
 	private Label				activeRPCCount;
+	private Label				logDropCount;
+	private Label				uiUpdateTime;
 	private Label				ourID;
 	private Label				receivedBytesTotal;
 	private Label				sentBytesTotal;
@@ -87,18 +102,26 @@ public class DHTView implements UISWTViewEventListener {
 	private Label				uptime;
 	private Label				avgSentBytes;
 	private Label				avgReceivedBytes;
+	private Label				budgetUsage;
 
 	private Label				dhtRunStatus;
+	private Label				startupTimes;
 	private Label[][]			messageLabels;
 	private Button				dhtStartStop;
 
 	private Group				dhtStatsGroup;
 	private Group				serverStatsGroup;
 	private Group				messageStatsGroup;
+	private Group				latencyGroup;
+	private Label[][]			latencyLabels;
+	private Sparkline[]			trafficSparklines;
+	private Sparkline[][]		methodSparklines;
+	private RPCHistory.Window	historyWindow	= RPCHistory.Window.FIVE_MINUTES;
 	private RoutingTableCanvas	rtc;
 
 	private Table				taskTable;
 	private Task[]				tasks;
+	private int[][]				taskCounters;
 	private Image				donationImg;
 	private final DHTtype		type;
 
@@ -118,6 +141,11 @@ public class DHTView implements UISWTViewEventListener {
 				if (!isCreated) {
 					return;
 				}
+				latestStats = stats;
+				// at most one update per view queued, it picks up the latest stats
+				if (!updatePending.compareAndSet(false, true)) {
+					return;
+				}
 				if (display != null && !display.isDisposed()) {
 					display.asyncExec(new SWTSafeRunnable() {
 						/*
@@ -127,100 +155,190 @@ public class DHTView implements UISWTViewEventListener {
 						 */
 						@Override
 						public void runSafe () {
+							updatePending.set(false);
 							if (!isActivated || peerCount == null
 									|| peerCount.isDisposed()) {
 								deactivate();
 								return;
 							}
-							peerCount.setText(String.valueOf(stats
-									.getNumPeers()));
-							taskCount.setText(String.valueOf(stats
-									.getNumTasks()));
-							keysCount.setText(String.valueOf(stats.getDbStats()
-									.getKeyCount()));
-							itemsCount.setText(String.valueOf(stats
-									.getDbStats().getItemCount()));
-							sentPacketCount.setText(String.valueOf(stats
-									.getNumSentPackets()));
-							receivedPacketCount.setText(String.valueOf(stats
-									.getNumReceivedPackets()));
-							activeRPCCount.setText(String.valueOf(stats
-									.getNumRpcCalls()));
-
-							RPCStats rpc = stats.getRpcStats();
-
-							receivedBytesTotal.setText(formatters
-									.formatByteCountToKiBEtc(rpc
-											.getReceivedBytes()));
-							sentBytesTotal
-									.setText(formatters
-											.formatByteCountToKiBEtc(rpc
-													.getSentBytes()));
-							receivedBytes.setText(formatters
-									.formatByteCountToKiBEtcPerSec(rpc
-											.getReceivedBytesPerSec()));
-							sentBytes.setText(formatters
-									.formatByteCountToKiBEtcPerSec(rpc
-											.getSentBytesPerSec()));
-
-							long uptimeSec = Duration.between(stats.getStartedTimestamp(), Instant.now()).getSeconds();
-							if (uptimeSec == 0) {
-								uptimeSec = 1;
-							}
-							uptime.setText(formatters
-									.formatTimeFromSeconds(uptimeSec));
-							avgReceivedBytes.setText(formatters
-									.formatByteCountToKiBEtcPerSec(rpc
-											.getReceivedBytes()
-											/ uptimeSec));
-							avgSentBytes.setText(formatters
-									.formatByteCountToKiBEtcPerSec(rpc
-											.getSentBytes()
-											/ uptimeSec));
-
-							for (int i = 0; i < 4; i++) {
-								Method m = Method.values()[i];
-								Label[] messages = messageLabels[i];
-								messages[0].setText(String.valueOf(rpc
-										.getSentMessageCount(m, Type.REQ_MSG)));
-								messages[1].setText(String.valueOf(rpc
-										.getSentMessageCount(m, Type.RSP_MSG)));
-								messages[2].setText(String.valueOf(rpc
-										.getTimeoutMessageCount(m)));
-								messages[3].setText(String.valueOf(rpc
-										.getReceivedMessageCount(m,
-												Type.REQ_MSG)));
-								messages[4].setText(String.valueOf(rpc
-										.getReceivedMessageCount(m,
-												Type.RSP_MSG)));
-							}
-							dhtStatsGroup.layout();
-							serverStatsGroup.layout();
-							messageStatsGroup.layout();
-
-							rtc.fullRepaint();
-
-							TaskManager tman = plugin.getDHT(DHTView.this.type).getTaskManager();
-							Task[] active = tman.getActiveTasks();
-							Task[] queued = tman.getQueuedTasks();
-							int size = active.length + queued.length;
-							if (tasks == null || tasks.length != size) {
-								tasks = new Task[size];
-							}
-							System
-									.arraycopy(active, 0, tasks, 0,
-											active.length);
-							System.arraycopy(queued, 0, tasks, active.length,
-									queued.length);
-							taskTable.clearAll();
-							taskTable.setItemCount(size);
+							long start = System.nanoTime();
+							updateStats(latestStats);
+							uiUpdateTimes.recordNanos(System.nanoTime() - start);
 						}
 					});
+				} else {
+					updatePending.set(false);
 				}
 			}
 		};
 	}
 
+	private void updateStats (DHTStats stats) {
+		boolean dhtStatsChanged = false;
+		dhtStatsChanged |= setText(peerCount, String.valueOf(stats.getNumPeers()));
+		dhtStatsChanged |= setText(taskCount, String.valueOf(stats.getNumTasks()));
+		dhtStatsChanged |= setText(keysCount, String.valueOf(stats.getDbStats().getKeyCount()));
+		dhtStatsChanged |= setText(itemsCount, String.valueOf(stats.getDbStats().getItemCount()));
+		dhtStatsChanged |= setText(sentPacketCount, String.valueOf(stats.getNumSentPackets()));
+		dhtStatsChanged |= setText(receivedPacketCount, String.valueOf(stats.getNumReceivedPackets()));
+		dhtStatsChanged |= setText(activeRPCCount, String.valueOf(stats.getNumRpcCalls()));
+
+		LogPipeline log = plugin.getLogPipeline();
+		if (log != null) {
+			dhtStatsChanged |= setText(logDropCount, log.getDroppedCount() + " / " + log.getSuppressedCount());
+		}
+
+		if (uiUpdateTimes.getCount() > 0) {
+			dhtStatsChanged |= setText(uiUpdateTime, formatLatency(uiUpdateTimes.getValueAtPercentile(50)) + " / "
+					+ formatLatency(uiUpdateTimes.getValueAtPercentile(99)) + " / " + formatLatency(uiUpdateTimes.getMax()));
+		}
+
+		DHTStartupTimings timings = plugin.getStartupTimings(type);
+		if (timings != null) {
+			setText(startupTimes, timings.toString());
+		}
+
+		RPCStats rpc = stats.getRpcStats();
+
+		boolean serverStatsChanged = false;
+		serverStatsChanged |= setText(receivedBytesTotal, formatters.formatByteCountToKiBEtc(rpc.getReceivedBytes()));
+		serverStatsChanged |= setText(sentBytesTotal, formatters.formatByteCountToKiBEtc(rpc.getSentBytes()));
+		serverStatsChanged |= setText(receivedBytes, formatters.formatByteCountToKiBEtcPerSec(rpc.getReceivedBytesPerSec()));
+		serverStatsChanged |= setText(sentBytes, formatters.formatByteCountToKiBEtcPerSec(rpc.getSentBytesPerSec()));
+
+		long uptimeSec = Duration.between(stats.getStartedTimestamp(), Instant.now()).getSeconds();
+		if (uptimeSec == 0) {
+			uptimeSec = 1;
+		}
+		serverStatsChanged |= setText(uptime, formatters.formatTimeFromSeconds(uptimeSec));
+		serverStatsChanged |= setText(avgReceivedBytes, formatters.formatByteCountToKiBEtcPerSec(rpc.getReceivedBytes() / uptimeSec));
+		serverStatsChanged |= setText(avgSentBytes, formatters.formatByteCountToKiBEtcPerSec(rpc.getSentBytes() / uptimeSec));
+		Tracker tracker = plugin.getTracker();
+		if (tracker != null) {
+			BandwidthBudget budget = tracker.getBudget();
+			serverStatsChanged |= setText(budgetUsage, (budget.isLimited(type)
+					? String.format("%.0f%%", 100 * budget.getUtilization(type)) : "Unlimited")
+					+ " / " + tracker.getBudgetDeferralCount());
+		}
+
+		boolean messageStatsChanged = false;
+		for (int i = 0; i < 4; i++) {
+			Method m = Method.values()[i];
+			Label[] messages = messageLabels[i];
+			messageStatsChanged |= setText(messages[0], String.valueOf(rpc.getSentMessageCount(m, Type.REQ_MSG)));
+			messageStatsChanged |= setText(messages[1], String.valueOf(rpc.getSentMessageCount(m, Type.RSP_MSG)));
+			messageStatsChanged |= setText(messages[2], String.valueOf(rpc.getTimeoutMessageCount(m)));
+			messageStatsChanged |= setText(messages[3], String.valueOf(rpc.getReceivedMessageCount(m, Type.REQ_MSG)));
+			messageStatsChanged |= setText(messages[4], String.valueOf(rpc.getReceivedMessageCount(m, Type.RSP_MSG)));
+		}
+		boolean latencyChanged = updateLatencyGroup();
+
+		// a longer text may need more space, everything else keeps its size
+		if (dhtStatsChanged) {
+			dhtStatsGroup.layout();
+		}
+		if (serverStatsChanged) {
+			serverStatsGroup.layout();
+		}
+		if (messageStatsChanged) {
+			messageStatsGroup.layout();
+		}
+		if (latencyChanged) {
+			latencyGroup.layout();
+		}
+
+		updateHistory();
+
+		rtc.fullRepaint();
+
+		updateTaskTable();
+	}
+
+	/**
+	 * @return true if the text was changed
+	 */
+	static boolean setText (Label label, String text) {
+		if (text.equals(label.getText())) {
+			return false;
+		}
+		label.setText(text);
+		return true;
+	}
+
+	/**
+	 * Diffs the current tasks against the displayed ones and only clears the
+	 * rows that show a different task or whose counters changed, the texts
+	 * are built in SetData for the rows that are actually visible
+	 */
+	private void updateTaskTable () {
+		TaskManager tman = plugin.getDHT(type).getTaskManager();
+		Task[] active = tman.getActiveTasks();
+		Task[] queued = tman.getQueuedTasks();
+		int size = active.length + queued.length;
+		Task[] current = new Task[size];
+		System.arraycopy(active, 0, current, 0, active.length);
+		System.arraycopy(queued, 0, current, active.length, queued.length);
+
+		Task[] previous = tasks;
+		int[][] previousCounters = taskCounters;
+		int[][] counters = new int[size][];
+		for (int i = 0; i < size; i++) {
+			counters[i] = taskCounters(current[i]);
+		}
+		tasks = current;
+		taskCounters = counters;
+
+		int oldSize = taskTable.getItemCount();
+		if (oldSize != size) {
+			taskTable.setItemCount(size);
+		}
+		for (int i = 0; i < Math.min(oldSize, size); i++) {
+			if (previous == null || i >= previous.length || previous[i] != current[i]
+					|| !Arrays.equals(previousCounters[i], counters[i])) {
+				taskTable.clear(i);
+			}
+		}
+	}
+
+	/**
+	 * @return the values behind the changing columns of {@link #taskRow}
+	 */
+	private static int[] taskCounters (Task t) {
+		return new int[] { t.isQueued() ? 1 : 0, t.getNumOutstandingRequestsExcludingStalled(),
+				t.getNumOutstandingRequests(), t.getSentReqs(), t.getRecvResponses(), t.getFailedReqs(),
+				System.identityHashCode(t.getInfo()) };
+	}
+
+	static String[] taskRow (Task t) {
+		String[] row = new String[6];
+		if (t instanceof PeerLookupTask) {
+			row[0] = !((PeerLookupTask) t).isNoAnnounce() ? "Scrape" : "Get Peers";
+		} else if (t instanceof AnnounceTask) {
+			row[0] = "Announce";
+		} else if (t instanceof NodeLookup) {
+			row[0] = "NodeLookup";
+		} else if (t instanceof PingRefreshTask) {
+			row[0] = "PingRefresh";
+		} else {
+			row[0] = t.getClass().getName();
+		}
+
+		row[1] = t.isQueued() ? "Queued" : "Active";
+
+		if (t instanceof PeerLookupTask) {
+			row[2] = ((PeerLookupTask) t).getTargetKey().toString(true);
+		} else if (t instanceof AnnounceTask) {
+			row[2] = ((AnnounceTask) t).getTargetKey().toString(true);
+		} else {
+			row[2] = "No Key";
+		}
+
+		row[3] = t.getNumOutstandingRequestsExcludingStalled() + " (" + t.getNumOutstandingRequests() + ")";
+		row[4] = t.getSentReqs() + " | " + t.getRecvResponses() + "/" + t.getFailedReqs();
+		row[5] = t.getInfo() != null ? t.getInfo() : "";
+		return row;
+	}
+
 	private void initialize (Composite comp) {
 		//comp.setLayout(new GridLayout(1,false));
 		GridData gridData = new GridData(GridData.FILL_BOTH);
@@ -241,6 +359,8 @@ public class DHTView implements UISWTViewEventListener {
 		createControlGroup(comp_on_sc);
 		createRPCGroup(comp_on_sc);
 		createMessageStatsGroup(comp_on_sc);
+		createLatencyGroup(comp_on_sc);
+		createHistoryGroup(comp_on_sc);
 
 		createRoutingTableView(comp_on_sc);
 		createTaskTable(comp_on_sc);
@@ -367,6 +487,14 @@ public class DHTView implements UISWTViewEventListener {
 			}
 		});
 
+		Label startupLabel = new Label(grp, SWT.None);
+		startupLabel.setText("Startup:");
+
+		startupTimes = new Label(grp, SWT.None);
+		gd = new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan = 2;
+		startupTimes.setLayoutData(gd);
+
 		updateDHTRunStatus();
 	}
 
@@ -422,6 +550,19 @@ public class DHTView implements UISWTViewEventListener {
 
 		activeRPCCount = new Label(grp, SWT.None);
 		activeRPCCount.setText("0");
+
+		Label logDropLabel = new Label(grp, SWT.None);
+		logDropLabel.setText("Log Dropped/Suppressed:");
+
+		logDropCount = new Label(grp, SWT.None);
+		logDropCount.setText("0 / 0");
+
+		Label uiUpdateLabel = new Label(grp, SWT.None);
+		uiUpdateLabel.setText("UI Update p50/p99/max:");
+		uiUpdateLabel.setToolTipText("Time this view spends on the UI thread per stats update");
+
+		uiUpdateTime = new Label(grp, SWT.None);
+		uiUpdateTime.setText("-");
 	}
 
 	private void createRPCGroup (Composite comp) {
@@ -469,6 +610,13 @@ public class DHTView implements UISWTViewEventListener {
 		avgSentLabel.setText("Avg. Sent:");
 
 		avgSentBytes = new Label(grp, SWT.None);
+
+		Label budgetLabel = new Label(grp, SWT.None);
+		budgetLabel.setText("Upload Budget / Deferred:");
+		budgetLabel.setToolTipText("Share of the configured upload budget in use, and announces or scrapes postponed because a budget was used up");
+
+		budgetUsage = new Label(grp, SWT.None);
+		budgetUsage.setText("-");
 	}
 
 	private void createMessageStatsGroup (Composite comp) {
@@ -542,6 +690,168 @@ public class DHTView implements UISWTViewEventListener {
 		}
 	}
 
+	private static final double[]	LATENCY_PERCENTILES	= { 50, 90, 99 };
+
+	private void createLatencyGroup (Composite comp) {
+		latencyGroup = new Group(comp, SWT.None);
+		Group grp = latencyGroup;
+		grp.setText("Announce Latency");
+
+		GridLayout gl = new GridLayout(LATENCY_PERCENTILES.length + 2, false);
+		grp.setLayout(gl);
+
+		GridData gd = new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan = 2;
+		grp.setLayoutData(gd);
+
+		//empty label
+		new Label(grp, SWT.None);
+		for (double p : LATENCY_PERCENTILES) {
+			Label l = new Label(grp, SWT.None);
+			l.setText("p" + (int) p);
+		}
+		Label countLabel = new Label(grp, SWT.None);
+		countLabel.setText("Samples");
+
+		AnnounceLatencyStats.Phase[] phases = AnnounceLatencyStats.Phase.values();
+		latencyLabels = new Label[phases.length][LATENCY_PERCENTILES.length + 1];
+		for (int i = 0; i < phases.length; i++) {
+			Label phaseLabel = new Label(grp, SWT.None);
+			phaseLabel.setText(phases[i] == AnnounceLatencyStats.Phase.LOOKUP
+					? phases[i].label + " (" + type.shortName + "):" : phases[i].label + ":");
+			for (int j = 0; j < latencyLabels[i].length; j++) {
+				latencyLabels[i][j] = new Label(grp, SWT.None);
+				gd = new GridData();
+				gd.widthHint = 80;
+				latencyLabels[i][j].setLayoutData(gd);
+			}
+		}
+	}
+
+	/**
+	 * @return true if any text was changed
+	 */
+	private boolean updateLatencyGroup () {
+		if (plugin.getTracker() == null) {
+			return false;
+		}
+		boolean changed = false;
+		AnnounceLatencyStats stats = plugin.getTracker().getLatencyStats();
+		AnnounceLatencyStats.Phase[] phases = AnnounceLatencyStats.Phase.values();
+		for (int i = 0; i < phases.length; i++) {
+			LatencyHistogram h = phases[i] == AnnounceLatencyStats.Phase.LOOKUP
+					? stats.getLookupHistogram(type) : stats.getHistogram(phases[i]);
+			Label[] labels = latencyLabels[i];
+			for (int j = 0; j < LATENCY_PERCENTILES.length; j++) {
+				changed |= setText(labels[j], h.getCount() == 0 ? "-"
+						: formatLatency(h.getValueAtPercentile(LATENCY_PERCENTILES[j])));
+			}
+			changed |= setText(labels[LATENCY_PERCENTILES.length], String.valueOf(h.getCount()));
+		}
+		return changed;
+	}
+
+	private void createHistoryGroup (Composite comp) {
+		Group grp = new Group(comp, SWT.None);
+		grp.setText("RPC History");
+
+		grp.setLayout(new GridLayout(4, false));
+
+		GridData gd = new GridData(GridData.FILL_HORIZONTAL);
+		gd.horizontalSpan = 2;
+		grp.setLayoutData(gd);
+
+		Label windowLabel = new Label(grp, SWT.None);
+		windowLabel.setText("Window:");
+
+		final Combo windowCombo = new Combo(grp, SWT.DROP_DOWN | SWT.READ_ONLY);
+		for (RPCHistory.Window w : RPCHistory.Window.values()) {
+			windowCombo.add(w.label);
+		}
+		windowCombo.select(historyWindow.ordinal());
+		windowCombo.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected (SelectionEvent e) {
+				historyWindow = RPCHistory.Window.values()[windowCombo.getSelectionIndex()];
+				updateHistory();
+			}
+		});
+		gd = new GridData();
+		gd.horizontalSpan = 3;
+		windowCombo.setLayoutData(gd);
+
+		//empty label
+		new Label(grp, SWT.None);
+		for (String header : new String[] { "Sent", "Received", "Active Calls" }) {
+			new Label(grp, SWT.None).setText(header);
+		}
+		new Label(grp, SWT.None).setText("Traffic:");
+		trafficSparklines = new Sparkline[3];
+		for (int i = 0; i < trafficSparklines.length; i++) {
+			trafficSparklines[i] = new Sparkline(grp, 240, 30);
+		}
+
+		//empty label
+		new Label(grp, SWT.None);
+		for (String header : new String[] { "Requests/s", "Responses/s", "Timeouts/s" }) {
+			new Label(grp, SWT.None).setText(header);
+		}
+		String[] methodNames = { "Ping:", "Find Node:", "Get Peers:", "Announce:" };
+		methodSparklines = new Sparkline[methodNames.length][3];
+		for (int i = 0; i < methodNames.length; i++) {
+			new Label(grp, SWT.None).setText(methodNames[i]);
+			for (int j = 0; j < 3; j++) {
+				methodSparklines[i][j] = new Sparkline(grp, 240, 30);
+			}
+		}
+	}
+
+	private void updateHistory () {
+		StatsPublisher publisher = plugin.getStatsPublisher();
+		if (publisher == null || trafficSparklines == null) {
+			return;
+		}
+		RPCHistory history = publisher.getHistory(type);
+		RPCHistory.Window w = historyWindow;
+
+		setSparkline(trafficSparklines[0], history.get(RPCHistory.Metric.SENT_BYTES, null, w), w, true);
+		setSparkline(trafficSparklines[1], history.get(RPCHistory.Metric.RECEIVED_BYTES, null, w), w, true);
+		setSparkline(trafficSparklines[2], history.get(RPCHistory.Metric.ACTIVE_CALLS, null, w), w, false);
+
+		RPCHistory.Metric[] metrics = { RPCHistory.Metric.REQUESTS, RPCHistory.Metric.RESPONSES, RPCHistory.Metric.TIMEOUTS };
+		for (int i = 0; i < methodSparklines.length; i++) {
+			Method m = Method.values()[i];
+			for (int j = 0; j < metrics.length; j++) {
+				setSparkline(methodSparklines[i][j], history.get(metrics[j], m, w), w, false);
+			}
+		}
+	}
+
+	private void setSparkline (Sparkline sparkline, float[] values, RPCHistory.Window w, boolean bytes) {
+		float max = 0;
+		for (float v : values) {
+			max = Math.max(max, v);
+		}
+		float last = values.length == 0 ? 0 : values[values.length - 1];
+		String toolTip = "last " + formatRate(last, bytes) + ", max " + formatRate(max, bytes) + " ("
+				+ w.resolution + "s samples)";
+		sparkline.setValues(values, w.capacity, toolTip);
+	}
+
+	private String formatRate (float value, boolean bytes) {
+		return bytes ? formatters.formatByteCountToKiBEtcPerSec((long) value) : String.format("%.1f", value);
+	}
+
+	static String formatLatency (long micros) {
+		if (micros < 10000) {
+			return String.format("%.1fms", micros / 1000.0);
+		}
+		if (micros < 10000000) {
+			return (micros / 1000) + "ms";
+		}
+		return String.format("%.1fs", micros / 1000000.0);
+	}
+
 	private void createRoutingTableView (Composite comp) {
 		/*
 		 * ScrolledComposite sc = new ScrolledComposite(comp, SWT.H_SCROLL |
@@ -607,50 +917,9 @@ public class DHTView implements UISWTViewEventListener {
 			public void handleEvent (Event event) {
 				TableItem item = (TableItem) event.item;
 				int index = taskTable.indexOf(item);
-				if (tasks != null && tasks.length > index) {
-					Task t = tasks[index];
-					if (t == null) {
-						System.err.println("Task was null.");
-						return;
-					}
-					if (t instanceof PeerLookupTask) {
-						item.setText(0, !((PeerLookupTask) t).isNoAnnounce() ? "Scrape" : "Get Peers");
-					} else if (t instanceof AnnounceTask) {
-						item.setText(0, "Announce");
-					} else if (t instanceof NodeLookup) {
-						item.setText(0, "NodeLookup");
-					} else if (t instanceof PingRefreshTask) {
-						item.setText(0, "PingRefresh");
-					} else {
-						item.setText(0, t.getClass().getName());
-					}
-
-					if (t.isQueued()) {
-						item.setText(1, "Queued");
-					} else {
-						item.setText(1, "Active");
-					}
-
-					String key;
-					
-					if (t instanceof PeerLookupTask ) {
-						key = ((PeerLookupTask)t).getTargetKey().toString(true);
-					}else if (t instanceof AnnounceTask ) {
-							key = ((AnnounceTask)t).getTargetKey().toString(true);
-					} else {
-						key = "No Key";
-					}
-					
-					item.setText( 2, key );
-					item.setText(3, t.getNumOutstandingRequestsExcludingStalled() + " ("
-							+ t.getNumOutstandingRequests() + ")");
-					
-					item.setText(4, t.getSentReqs() + " | " + t.getRecvResponses()
-						+ "/" + t.getFailedReqs());
-
-					if (t.getInfo() != null) {
-						item.setText(5, t.getInfo());
-					}
+				Task[] current = tasks;
+				if (current != null && current.length > index) {
+					item.setText(taskRow(current[index]));
 				}
 			}
 		});
@@ -17,11 +17,17 @@
 package lbms.plugins.mldht.azureus.gui;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import lbms.plugins.mldht.kad.*;
 import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
 import the8472.bencode.Utils;
 
+import com.biglybt.core.util.AERunnable;
+import com.biglybt.core.util.AsyncDispatcher;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.events.PaintEvent;
@@ -70,6 +76,72 @@ public class RoutingTableCanvas {
 	private static int BUCKET_DEPTH_OFFSET = 5;
 	private int bucketXOffset = 0;
 	
+	private static final byte	STATE_GOOD				= 0;
+	private static final byte	STATE_BAD				= 1;
+	private static final byte	STATE_OTHER				= 2;
+
+	/**
+	 * Immutable copy of what the tooltip shows for one bucket entry
+	 */
+	private static final class EntrySummary {
+		final String	id;
+		final String	address;
+		final String	version;
+		final long		lastSeen;
+		final long		creationTime;
+		final int		failedQueries;
+
+		EntrySummary (KBucketEntry e) {
+			id = e.getID().toString();
+			address = String.valueOf(e.getAddress());
+			if (!e.getVersion().isPresent()) {
+				version = "";
+			} else {
+				ByteBuffer bb = e.getVersion().get();
+				version = Utils.prettyPrint(bb);
+			}
+			lastSeen = e.getLastSeen();
+			creationTime = e.getCreationTime();
+			failedQueries = e.getFailedQueries();
+		}
+
+		String toTooltip (long now) {
+			String tip = "ID: " + id;
+			tip += "\nAddress: " + address;
+			tip += "\nClientVer: " + version;
+			tip += "\nLast Responded: " + ((now - lastSeen) / 1000) + "sec";
+			tip += "\nAge: " + (now - creationTime) / 1000 + "sec";
+			tip += "\nFailed Queries: " + failedQueries;
+			return tip;
+		}
+	}
+
+	/**
+	 * What is drawn for one bucket, part of the immutable snapshot that
+	 * rendering and hit-testing work on. mlDHT's buckets have no modification
+	 * counter, so the views of two frames are compared to find the buckets
+	 * that have to be redrawn.
+	 */
+	private static final class BucketView {
+		final int				depth;
+		final byte[]			entries;
+		final byte[]			replacements;
+		final EntrySummary[]	entrySummaries;
+		final EntrySummary[]	replacementSummaries;
+
+		BucketView (int depth, List<KBucketEntry> entries, List<KBucketEntry> replacements) {
+			this.depth = depth;
+			this.entries = states(entries, false);
+			this.replacements = states(replacements, true);
+			this.entrySummaries = summaries(entries);
+			this.replacementSummaries = summaries(replacements);
+		}
+
+		boolean sameAs (BucketView other) {
+			return other != null && depth == other.depth && Arrays.equals(entries, other.entries)
+					&& Arrays.equals(replacements, other.replacements);
+		}
+	}
 
 	private Canvas					canvas;
 	private Image					img;
@@ -78,7 +150,13 @@ public class RoutingTableCanvas {
 	private boolean					disposed;
 	private int						peerWidth;
 	private int						lineSpacing;
-	private Node					routingTable;
+	private volatile Node			routingTable;
+	private final Color[]			stateColors;
+	/** snapshot currently in the image, only accessed on the SWT thread */
+	private BucketView[]			drawn					= new BucketView[0];
+	private boolean					imageValid;
+	private final AsyncDispatcher	snapshotDispatcher		= new AsyncDispatcher();
+	private final AtomicBoolean		snapshotPending			= new AtomicBoolean();
 
 	public RoutingTableCanvas(Composite parent) {
 		this(parent, null);
@@ -87,6 +165,8 @@ public class RoutingTableCanvas {
 	public RoutingTableCanvas(Composite parent, Object layoutData) {
 		display = parent.getDisplay();
 		img = new Image(display, DEFAULT_WIDTH, DEFAULT_HEIGHT);
+		stateColors = new Color[] { display.getSystemColor(SWT.COLOR_DARK_GREEN),
+				display.getSystemColor(SWT.COLOR_RED), display.getSystemColor(SWT.COLOR_BLUE) };
 
 		if (parent instanceof ScrolledComposite) {
 			final ScrolledComposite sc = (ScrolledComposite) parent;
@@ -217,17 +297,17 @@ public class RoutingTableCanvas {
 
 	private String getTooltipForPoint (int x, int y) {
 		
+		BucketView[] views = drawn;
 		int nthBucket = x / bucketXOffset;
-		List<RoutingTableEntry> entries = routingTable.table().list();
-		if ( nthBucket >= entries.size()){
+		if ( nthBucket >= views.length){
 			return( null);
 		}
-		RoutingTableEntry e = entries.get(nthBucket);
-		int yOffset = e.prefix.getDepth() * BUCKET_DEPTH_OFFSET + BUCKET_PADDING;
+		BucketView view = views[nthBucket];
+		int yOffset = view.depth * BUCKET_DEPTH_OFFSET + BUCKET_PADDING;
 		int xOffset = bucketXOffset * nthBucket + BUCKET_PADDING;
 		
 		
-		if(y < yOffset)
+		if(y < yOffset || x < xOffset)
 			return null;
 		
 		boolean isMainBucket = true;
@@ -242,49 +322,105 @@ public class RoutingTableCanvas {
 		if(!isMainBucket && !isReplacementBucket || (x-xOffset-peerNum*(peerWidth+X_SPACING)) >= peerWidth)
 			return null;
 		
-		List<KBucketEntry> bucket = isMainBucket? e.getBucket().getEntries() : e.getBucket().getReplacementEntries();
-		if(peerNum >= bucket.size())
+		EntrySummary[] bucket = isMainBucket? view.entrySummaries : view.replacementSummaries;
+		if(peerNum >= bucket.length)
 			return null;
 		
-		KBucketEntry bucketEntry = bucket.get(peerNum);
-		
-		String ver;
-		if( !bucketEntry.getVersion().isPresent()) {
-			ver = "";
-		}else{
-			ByteBuffer bb = bucketEntry.getVersion().get();
-			ver = Utils.prettyPrint(bb);
-		}
-		
-
-		String tip = "ID: " + bucketEntry.getID().toString();
-		tip += "\nAddress: " + bucketEntry.getAddress();
-		tip += "\nClientVer: " + ver;
-		tip += "\nLast Responded: "
-				+ ((System.currentTimeMillis() - bucketEntry.getLastSeen()) / 1000)
-				+ "sec";
-		tip += "\nAge: " + (System.currentTimeMillis() - bucketEntry.getCreationTime())
-				/ 1000 + "sec";
-		tip += "\nFailed Queries: " + bucketEntry.getFailedQueries();
-		return tip;
+		return bucket[peerNum].toTooltip(System.currentTimeMillis());
 	}
 
+	/**
+	 * Takes a snapshot of the routing table off the SWT thread and brings the
+	 * image up to date with it afterwards. Calls while a snapshot is being
+	 * taken are coalesced.
+	 */
 	public void fullRepaint () {
-		if (disposed) {
+		if (disposed || !snapshotPending.compareAndSet(false, true)) {
 			return;
 		}
-		GC gc = new GC(img);
-		printBackground(gc);
-		if (routingTable != null) {
-			printPeers(gc);
+		final Node node = routingTable;
+		snapshotDispatcher.dispatch(new AERunnable() {
+			@Override
+			public void runSupport () {
+				BucketView[] views = null;
+				try {
+					views = node != null ? buildViews(node) : new BucketView[0];
+				} finally {
+					if (views == null) {
+						snapshotPending.set(false);
+					}
+				}
+				final BucketView[] snapshot = views;
+				try {
+					display.asyncExec(new SWTSafeRunnable() {
+						@Override
+						public void runSafe () {
+							snapshotPending.set(false);
+							if (!disposed && node == routingTable) {
+								repaint(snapshot);
+							}
+						}
+					});
+				} catch (Throwable e) {
+					// display is gone
+					snapshotPending.set(false);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Only buckets that changed since the last snapshot are redrawn and
+	 * nothing is repainted if none did
+	 */
+	private void repaint (BucketView[] views) {
+		GC gc = null;
+		boolean wholeImage = !imageValid;
+		if (wholeImage) {
+			gc = new GC(img);
+			printBackground(gc, img.getBounds());
+			drawn = new BucketView[0];
+			imageValid = true;
+		}
+
+		int first = -1;
+		int last = -1;
+		for (int i = 0; i < Math.max(views.length, drawn.length); i++) {
+			BucketView view = i < views.length ? views[i] : null;
+			BucketView old = i < drawn.length ? drawn[i] : null;
+			if (view != null && view.sameAs(old)) {
+				continue;
+			}
+			if (gc == null) {
+				gc = new GC(img);
+			}
+			if (old != null) {
+				printBackground(gc, new Rectangle(i * bucketXOffset, 0, bucketXOffset, DEFAULT_HEIGHT));
+			}
+			if (view != null) {
+				printBucket(gc, i, view);
+			}
+			if (first < 0) {
+				first = i;
+			}
+			last = i;
+		}
+		drawn = views;
+
+		if (gc != null) {
+			gc.dispose();
+		}
+		if (wholeImage) {
+			canvas.redraw();
+		} else if (first >= 0) {
+			canvas.redraw(first * bucketXOffset, 0, (last - first + 1) * bucketXOffset, DEFAULT_HEIGHT, false);
 		}
-		canvas.redraw();
-		gc.dispose();
 	}
 
-	private void printBackground (GC gc) {
+	private void printBackground (GC gc, Rectangle area) {
+		gc.setAlpha(255);
 		gc.setBackground(canvas.getParent().getBackground());
-		gc.fillRectangle(img.getBounds());
+		gc.fillRectangle(area);
 	}
 
 	private void printBuckets (GC gc) {
@@ -303,78 +439,77 @@ public class RoutingTableCanvas {
 		*/
 	}
 
-	private void printPeers (GC gc) {
-
-		
-		List<RoutingTableEntry> buckets = routingTable.table().list();
-		
-		
-		for (int i = 0; i < buckets.size(); i++) {
+	private static BucketView[] buildViews (Node node) {
+		List<RoutingTableEntry> buckets = node.table().list();
+		BucketView[] views = new BucketView[buckets.size()];
+		for (int i = 0; i < views.length; i++) {
 			RoutingTableEntry rtEntry = buckets.get(i);
-			
-			int currentBucketOffsetX = i * bucketXOffset;
-			int currentBucketOffsetY = rtEntry.prefix.getDepth() * BUCKET_DEPTH_OFFSET;
-			
-			gc.setAlpha(255);
-			gc.drawRectangle(currentBucketOffsetX, currentBucketOffsetY , bucketContentWidth + 2* BUCKET_PADDING, 3 * PEER_HEIGHT);
-			
-			currentBucketOffsetX += BUCKET_PADDING;
-			currentBucketOffsetY += BUCKET_PADDING;
-			
-			List<KBucketEntry> entries = rtEntry.getBucket().getEntries();
-			for (int j = 0; j < entries.size(); j++) {
-				KBucketEntry e = entries.get(j);
-				
-				if (e.eligibleForNodesList()) {
-					Color c = display.getSystemColor(SWT.COLOR_DARK_GREEN);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				} else if (e.needsReplacement()) {
-					Color c = display.getSystemColor(SWT.COLOR_RED);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				} else {
-					Color c = display.getSystemColor(SWT.COLOR_BLUE);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				}
-				int xOffset = currentBucketOffsetX + j * (peerWidth + X_SPACING);
+			KBucket bucket = rtEntry.getBucket();
+			views[i] = new BucketView(rtEntry.prefix.getDepth(), bucket.getEntries(), bucket.getReplacementEntries());
+		}
+		return views;
+	}
 
-				gc.fillRectangle(xOffset, currentBucketOffsetY, peerWidth, PEER_HEIGHT);
+	private static EntrySummary[] summaries (List<KBucketEntry> entries) {
+		EntrySummary[] summaries = new EntrySummary[entries.size()];
+		for (int j = 0; j < summaries.length; j++) {
+			summaries[j] = new EntrySummary(entries.get(j));
+		}
+		return summaries;
+	}
+
+	private static byte[] states (List<KBucketEntry> entries, boolean replacements) {
+		byte[] states = new byte[entries.size()];
+		for (int j = 0; j < states.length; j++) {
+			KBucketEntry e = entries.get(j);
+			if (replacements ? e.eligibleForLocalLookup() : e.eligibleForNodesList()) {
+				states[j] = STATE_GOOD;
+			} else if (e.needsReplacement()) {
+				states[j] = STATE_BAD;
+			} else {
+				states[j] = STATE_OTHER;
 			}
-			
-			currentBucketOffsetY += PEER_HEIGHT + Y_SPACING;
-
-			gc.setBackground(display.getSystemColor(SWT.COLOR_GRAY));
-			gc.fillRectangle(currentBucketOffsetX, currentBucketOffsetY, bucketContentWidth, PEER_HEIGHT);
-			gc.drawRectangle(currentBucketOffsetX, currentBucketOffsetY, bucketContentWidth, PEER_HEIGHT);
-			
-			gc.setAlpha(128);
-			
-			entries = rtEntry.getBucket().getReplacementEntries();
-			for (int j = 0; j < entries.size(); j++) {
-				KBucketEntry e = entries.get(j);
-				if (e.eligibleForLocalLookup()) {
-					Color c = display.getSystemColor(SWT.COLOR_DARK_GREEN);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				} else if (e.needsReplacement()) {
-					Color c = display.getSystemColor(SWT.COLOR_RED);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				} else {
-					Color c = display.getSystemColor(SWT.COLOR_BLUE);
-					//gc.setForeground(c);
-					gc.setBackground(c);
-				}
-				int xOffset = currentBucketOffsetX + j * (peerWidth + X_SPACING);
+		}
+		return states;
+	}
+
+	private void printBucket (GC gc, int index, BucketView view) {
+		int currentBucketOffsetX = index * bucketXOffset;
+		int currentBucketOffsetY = view.depth * BUCKET_DEPTH_OFFSET;
+
+		gc.setAlpha(255);
+		gc.drawRectangle(currentBucketOffsetX, currentBucketOffsetY, bucketContentWidth + 2 * BUCKET_PADDING, 3 * PEER_HEIGHT);
+
+		currentBucketOffsetX += BUCKET_PADDING;
+		currentBucketOffsetY += BUCKET_PADDING;
 
-				gc.fillRectangle(xOffset, currentBucketOffsetY, peerWidth, PEER_HEIGHT);
+		printEntries(gc, view.entries, currentBucketOffsetX, currentBucketOffsetY);
+
+		currentBucketOffsetY += PEER_HEIGHT + Y_SPACING;
+
+		gc.setBackground(display.getSystemColor(SWT.COLOR_GRAY));
+		gc.fillRectangle(currentBucketOffsetX, currentBucketOffsetY, bucketContentWidth, PEER_HEIGHT);
+		gc.drawRectangle(currentBucketOffsetX, currentBucketOffsetY, bucketContentWidth, PEER_HEIGHT);
+
+		gc.setAlpha(128);
+		printEntries(gc, view.replacements, currentBucketOffsetX, currentBucketOffsetY);
+	}
+
+	private void printEntries (GC gc, byte[] states, int x, int y) {
+		int current = -1;
+		for (int j = 0; j < states.length; j++) {
+			if (states[j] != current) {
+				current = states[j];
+				gc.setBackground(stateColors[current]);
 			}
+			gc.fillRectangle(x + j * (peerWidth + X_SPACING), y, peerWidth, PEER_HEIGHT);
 		}
 	}
 
 	public void setNode (Node bucketHolder) {
+		if (bucketHolder != routingTable) {
+			imageValid = false;
+		}
 		routingTable = bucketHolder;
 	}
 
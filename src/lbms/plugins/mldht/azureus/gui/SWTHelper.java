@@ -67,6 +67,7 @@ public class SWTHelper implements UIHelper, UIManagerListener, PopulationListene
 		}
 		
 		swtInstance.removeViews(UISWTInstance.VIEW_MAIN, DHTView.VIEWID);
+		swtInstance.removeViews(UISWTInstance.VIEW_MAIN, DHTDebugView.VIEWID);
 		
 		if (statusEntry != null) {
 			statusEntry.destroy();
@@ -159,6 +160,8 @@ public class SWTHelper implements UIHelper, UIManagerListener, PopulationListene
 
 			}
 
+			swtInstance.addView(UISWTInstance.VIEW_MAIN, DHTDebugView.VIEWID, new DHTDebugView(plugin));
+
 			updateStatusEntry();
 		}
 	}
@@ -0,0 +1,92 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.gui;
+
+import java.util.Arrays;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * Minimal line chart of a series of non-negative values, scaled to the
+ * series' maximum. The newest value is drawn at the right edge.
+ */
+public class Sparkline {
+
+	private final Canvas	canvas;
+	private float[]			values		= new float[0];
+	private int				capacity	= 1;
+
+	public Sparkline (Composite parent, int width, int height) {
+		canvas = new Canvas(parent, SWT.DOUBLE_BUFFERED | SWT.BORDER);
+		GridData gd = new GridData();
+		gd.widthHint = width;
+		gd.heightHint = height;
+		canvas.setLayoutData(gd);
+		canvas.addPaintListener(e -> paint(e.gc));
+	}
+
+	/**
+	 * @param capacity number of values the full width stands for
+	 * @param toolTip shown on hover, may be null
+	 */
+	public void setValues (float[] values, int capacity, String toolTip) {
+		if (canvas.isDisposed()) {
+			return;
+		}
+		if (toolTip != null && !toolTip.equals(canvas.getToolTipText())) {
+			canvas.setToolTipText(toolTip);
+		}
+		if (capacity == this.capacity && Arrays.equals(values, this.values)) {
+			return;
+		}
+		this.values = values;
+		this.capacity = Math.max(2, capacity);
+		canvas.redraw();
+	}
+
+	private void paint (GC gc) {
+		Rectangle area = canvas.getClientArea();
+		gc.setBackground(canvas.getDisplay().getSystemColor(SWT.COLOR_LIST_BACKGROUND));
+		gc.fillRectangle(area);
+		if (values.length < 2) {
+			return;
+		}
+		float max = 0;
+		for (float v : values) {
+			max = Math.max(max, v);
+		}
+		int height = area.height - 2;
+		int[] points = new int[values.length * 2];
+		for (int i = 0; i < values.length; i++) {
+			int x = area.width - 1 - (int) ((long) (values.length - 1 - i) * (area.width - 1) / (capacity - 1));
+			int y = max == 0 ? height : height - Math.round(values[i] / max * (height - 1));
+			points[i * 2] = x;
+			points[i * 2 + 1] = y + 1;
+		}
+		gc.setForeground(canvas.getDisplay().getSystemColor(SWT.COLOR_DARK_BLUE));
+		gc.drawPolyline(points);
+	}
+
+	public void dispose () {
+		canvas.dispose();
+	}
+}
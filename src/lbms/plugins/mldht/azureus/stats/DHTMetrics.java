@@ -0,0 +1,142 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+
+class DHTMetrics implements DHTMetricsMXBean {
+
+	private final StatsPublisher	publisher;
+	private final DHTtype			type;
+
+	DHTMetrics (StatsPublisher publisher, DHTtype type) {
+		this.publisher = publisher;
+		this.type = type;
+	}
+
+	private DHTStatsSnapshot get () {
+		return publisher.getSnapshot().getDHT(type);
+	}
+
+	@Override
+	public boolean isRunning () {
+		return get().running;
+	}
+
+	@Override
+	public long getSnapshotTime () {
+		return get().time;
+	}
+
+	@Override
+	public int getRoutingTablePeers () {
+		return get().numPeers;
+	}
+
+	@Override
+	public long getEstimatedPopulation () {
+		return get().estimatedPopulation;
+	}
+
+	@Override
+	public int getActiveTasks () {
+		return get().activeTasks;
+	}
+
+	@Override
+	public int getQueuedTasks () {
+		return get().queuedTasks;
+	}
+
+	@Override
+	public long getStoredKeys () {
+		return get().storedKeys;
+	}
+
+	@Override
+	public long getStoredItems () {
+		return get().storedItems;
+	}
+
+	@Override
+	public long getActiveRPCCalls () {
+		return get().activeRPCCalls;
+	}
+
+	@Override
+	public long getSentPackets () {
+		return get().sentPackets;
+	}
+
+	@Override
+	public long getReceivedPackets () {
+		return get().receivedPackets;
+	}
+
+	@Override
+	public double getSentPacketsPerSec () {
+		return get().sentPacketsPerSec;
+	}
+
+	@Override
+	public double getReceivedPacketsPerSec () {
+		return get().receivedPacketsPerSec;
+	}
+
+	@Override
+	public long getSentBytes () {
+		return get().sentBytes;
+	}
+
+	@Override
+	public long getReceivedBytes () {
+		return get().receivedBytes;
+	}
+
+	@Override
+	public long getSentBytesPerSec () {
+		return get().sentBytesPerSec;
+	}
+
+	@Override
+	public long getReceivedBytesPerSec () {
+		return get().receivedBytesPerSec;
+	}
+
+	@Override
+	public long getSentRequests () {
+		return get().getTotalSentRequests();
+	}
+
+	@Override
+	public long getTimeouts () {
+		return get().getTotalTimeouts();
+	}
+
+	@Override
+	public String[] getMethodCounters () {
+		DHTStatsSnapshot s = get();
+		Method[] methods = Method.values();
+		String[] result = new String[methods.length];
+		for (Method m : methods) {
+			int i = m.ordinal();
+			result[i] = m + "=" + s.sentRequests[i] + "/" + s.receivedResponses[i] + "/" + s.timeouts[i];
+		}
+		return result;
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+/**
+ * JMX view of one DHT instance, all attributes are served from the latest
+ * published snapshot.
+ */
+public interface DHTMetricsMXBean {
+
+	boolean isRunning ();
+
+	long getSnapshotTime ();
+
+	int getRoutingTablePeers ();
+
+	long getEstimatedPopulation ();
+
+	int getActiveTasks ();
+
+	int getQueuedTasks ();
+
+	long getStoredKeys ();
+
+	long getStoredItems ();
+
+	long getActiveRPCCalls ();
+
+	long getSentPackets ();
+
+	long getReceivedPackets ();
+
+	double getSentPacketsPerSec ();
+
+	double getReceivedPacketsPerSec ();
+
+	long getSentBytes ();
+
+	long getReceivedBytes ();
+
+	long getSentBytesPerSec ();
+
+	long getReceivedBytesPerSec ();
+
+	long getSentRequests ();
+
+	long getTimeouts ();
+
+	/**
+	 * @return per-method counters, formatted as method=sentReq/recvRsp/timeouts
+	 */
+	String[] getMethodCounters ();
+}
@@ -0,0 +1,206 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.util.List;
+
+import lbms.plugins.mldht.kad.DHT;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+import lbms.plugins.mldht.kad.DHTStats;
+import lbms.plugins.mldht.kad.KBucketEntry;
+import lbms.plugins.mldht.kad.Node;
+import lbms.plugins.mldht.kad.Node.RoutingTableEntry;
+import lbms.plugins.mldht.kad.RPCStats;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+import lbms.plugins.mldht.kad.messages.MessageBase.Type;
+import lbms.plugins.mldht.kad.tasks.TaskManager;
+
+/**
+ * Immutable copy of the counters of one DHT instance at a point in time.
+ */
+public final class DHTStatsSnapshot {
+
+	public final DHTtype	type;
+	public final long		time;
+	public final boolean	running;
+
+	public final int		numPeers;
+	public final int		numTasks;
+	public final int		activeTasks;
+	public final int		queuedTasks;
+	public final long		storedKeys;
+	public final long		storedItems;
+	public final long		activeRPCCalls;
+	public final long		estimatedPopulation;
+
+	public final long		sentPackets;
+	public final long		receivedPackets;
+	public final long		sentBytes;
+	public final long		receivedBytes;
+	public final long		sentBytesPerSec;
+	public final long		receivedBytesPerSec;
+	public final double		sentPacketsPerSec;
+	public final double		receivedPacketsPerSec;
+
+	/** indexed by Method.ordinal() */
+	public final long[]		sentRequests;
+	public final long[]		sentResponses;
+	public final long[]		receivedRequests;
+	public final long[]		receivedResponses;
+	public final long[]		timeouts;
+
+	public final BucketSummary[]	buckets;
+
+	/**
+	 * Occupancy of one routing table bucket
+	 */
+	public static final class BucketSummary {
+		public final String	prefix;
+		public final int	depth;
+		public final int	entries;
+		public final int	goodEntries;
+		public final int	replacements;
+
+		BucketSummary (RoutingTableEntry e) {
+			prefix = e.prefix.toString();
+			depth = e.prefix.getDepth();
+			List<KBucketEntry> main = e.getBucket().getEntries();
+			entries = main.size();
+			int good = 0;
+			for (KBucketEntry k : main) {
+				if (k.eligibleForNodesList()) {
+					good++;
+				}
+			}
+			goodEntries = good;
+			replacements = e.getBucket().getReplacementEntries().size();
+		}
+	}
+
+	private DHTStatsSnapshot (DHTtype type, long time) {
+		this.type = type;
+		this.time = time;
+		running = false;
+		numPeers = numTasks = activeTasks = queuedTasks = 0;
+		storedKeys = storedItems = activeRPCCalls = estimatedPopulation = 0;
+		sentPackets = receivedPackets = sentBytes = receivedBytes = sentBytesPerSec = receivedBytesPerSec = 0;
+		sentPacketsPerSec = receivedPacketsPerSec = 0;
+		int methods = Method.values().length;
+		sentRequests = new long[methods];
+		sentResponses = new long[methods];
+		receivedRequests = new long[methods];
+		receivedResponses = new long[methods];
+		timeouts = new long[methods];
+		buckets = new BucketSummary[0];
+	}
+
+	private DHTStatsSnapshot (DHT dht, DHTStats stats, long time, DHTStatsSnapshot previous) {
+		type = dht.getType();
+		this.time = time;
+		running = true;
+
+		numPeers = stats.getNumPeers();
+		numTasks = stats.getNumTasks();
+		TaskManager tman = dht.getTaskManager();
+		activeTasks = tman == null ? 0 : tman.getActiveTasks().length;
+		queuedTasks = tman == null ? 0 : tman.getQueuedTasks().length;
+		storedKeys = stats.getDbStats().getKeyCount();
+		storedItems = stats.getDbStats().getItemCount();
+		activeRPCCalls = stats.getNumRpcCalls();
+		estimatedPopulation = dht.getEstimator().getEstimate();
+
+		sentPackets = stats.getNumSentPackets();
+		receivedPackets = stats.getNumReceivedPackets();
+
+		RPCStats rpc = stats.getRpcStats();
+		sentBytes = rpc.getSentBytes();
+		receivedBytes = rpc.getReceivedBytes();
+		sentBytesPerSec = rpc.getSentBytesPerSec();
+		receivedBytesPerSec = rpc.getReceivedBytesPerSec();
+
+		if (previous != null && previous.running && time > previous.time) {
+			double secs = (time - previous.time) / 1000.0;
+			sentPacketsPerSec = Math.max(0, sentPackets - previous.sentPackets) / secs;
+			receivedPacketsPerSec = Math.max(0, receivedPackets - previous.receivedPackets) / secs;
+		} else {
+			sentPacketsPerSec = receivedPacketsPerSec = 0;
+		}
+
+		Method[] methods = Method.values();
+		sentRequests = new long[methods.length];
+		sentResponses = new long[methods.length];
+		receivedRequests = new long[methods.length];
+		receivedResponses = new long[methods.length];
+		timeouts = new long[methods.length];
+		for (Method m : methods) {
+			int i = m.ordinal();
+			sentRequests[i] = rpc.getSentMessageCount(m, Type.REQ_MSG);
+			sentResponses[i] = rpc.getSentMessageCount(m, Type.RSP_MSG);
+			receivedRequests[i] = rpc.getReceivedMessageCount(m, Type.REQ_MSG);
+			receivedResponses[i] = rpc.getReceivedMessageCount(m, Type.RSP_MSG);
+			timeouts[i] = rpc.getTimeoutMessageCount(m);
+		}
+
+		Node node = dht.getNode();
+		if (node != null) {
+			List<RoutingTableEntry> entries = node.table().list();
+			buckets = new BucketSummary[entries.size()];
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new BucketSummary(entries.get(i));
+			}
+		} else {
+			buckets = new BucketSummary[0];
+		}
+	}
+
+	/**
+	 * Reads the current counters of dht, must not be called on the UI thread
+	 *
+	 * @param previous the preceding snapshot for the same DHT, used for rates
+	 */
+	public static DHTStatsSnapshot capture (DHT dht, DHTtype type, DHTStatsSnapshot previous) {
+		long now = System.currentTimeMillis();
+		if (dht == null || !dht.isRunning()) {
+			return new DHTStatsSnapshot(type, now);
+		}
+		try {
+			DHTStats stats = dht.getStats();
+			if (stats != null) {
+				return new DHTStatsSnapshot(dht, stats, now, previous);
+			}
+		} catch (Throwable e) {
+			// stopped under us
+		}
+		return new DHTStatsSnapshot(type, now);
+	}
+
+	public long getTotalTimeouts () {
+		long total = 0;
+		for (long t : timeouts) {
+			total += t;
+		}
+		return total;
+	}
+
+	public long getTotalSentRequests () {
+		long total = 0;
+		for (long t : sentRequests) {
+			total += t;
+		}
+		return total;
+	}
+}
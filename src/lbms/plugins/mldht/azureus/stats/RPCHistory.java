@@ -0,0 +1,174 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.util.Arrays;
+
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+
+/**
+ * Fixed memory history of the per-second RPC rates of one DHT, fed with the
+ * snapshots of the {@link StatsPublisher}.
+ *
+ * Samples are kept in three ring buffer tiers: every second for 5 minutes,
+ * 15 second averages for an hour and 6 minute averages for a day.
+ */
+public class RPCHistory {
+
+	public enum Metric {
+		/** bytes/s */
+		SENT_BYTES,
+		/** bytes/s */
+		RECEIVED_BYTES,
+		/** RPC calls in flight */
+		ACTIVE_CALLS,
+		/** requests sent per second, per method */
+		REQUESTS,
+		/** responses received per second, per method */
+		RESPONSES,
+		/** timeouts per second, per method */
+		TIMEOUTS;
+
+		boolean perMethod () {
+			return ordinal() >= REQUESTS.ordinal();
+		}
+	}
+
+	public enum Window {
+		FIVE_MINUTES("5 min", 1, 300),
+		HOUR("1 h", 15, 240),
+		DAY("24 h", 360, 240);
+
+		public final String	label;
+		/** seconds per sample */
+		public final int	resolution;
+		public final int	capacity;
+
+		private Window (String label, int resolution, int capacity) {
+			this.label = label;
+			this.resolution = resolution;
+			this.capacity = capacity;
+		}
+	}
+
+	private static final int	METHODS	= Method.values().length;
+	private static final int	SERIES	= 3 + 3 * METHODS;
+
+	private static final class Tier {
+		final Window	window;
+		/** [series][slot] */
+		final float[][]	values;
+		final double[]	sums	= new double[SERIES];
+		int				accumulated;
+		int				head;
+		int				size;
+
+		Tier (Window window) {
+			this.window = window;
+			values = new float[SERIES][window.capacity];
+		}
+
+		void add (float[] sample) {
+			for (int s = 0; s < SERIES; s++) {
+				sums[s] += sample[s];
+			}
+			if (++accumulated < window.resolution) {
+				return;
+			}
+			for (int s = 0; s < SERIES; s++) {
+				values[s][head] = (float) (sums[s] / accumulated);
+				sums[s] = 0;
+			}
+			accumulated = 0;
+			head = (head + 1) % window.capacity;
+			size = Math.min(size + 1, window.capacity);
+		}
+	}
+
+	private final Tier[]	tiers;
+	private final float[]	sample	= new float[SERIES];
+
+	public RPCHistory () {
+		Window[] windows = Window.values();
+		tiers = new Tier[windows.length];
+		for (int i = 0; i < windows.length; i++) {
+			tiers[i] = new Tier(windows[i]);
+		}
+	}
+
+	/**
+	 * Adds the rates between two consecutive snapshots as one sample per
+	 * elapsed second
+	 */
+	synchronized void add (DHTStatsSnapshot current, DHTStatsSnapshot previous) {
+		long seconds = 1;
+		if (current.running && previous != null && previous.running && current.time > previous.time) {
+			double secs = (current.time - previous.time) / 1000.0;
+			seconds = Math.max(1, Math.round(secs));
+			sample[Metric.SENT_BYTES.ordinal()] = rate(current.sentBytes, previous.sentBytes, secs);
+			sample[Metric.RECEIVED_BYTES.ordinal()] = rate(current.receivedBytes, previous.receivedBytes, secs);
+			for (int m = 0; m < METHODS; m++) {
+				sample[index(Metric.REQUESTS, m)] = rate(current.sentRequests[m], previous.sentRequests[m], secs);
+				sample[index(Metric.RESPONSES, m)] = rate(current.receivedResponses[m], previous.receivedResponses[m], secs);
+				sample[index(Metric.TIMEOUTS, m)] = rate(current.timeouts[m], previous.timeouts[m], secs);
+			}
+		} else {
+			// not running or restarted, counters are not comparable
+			Arrays.fill(sample, 0);
+		}
+		sample[Metric.ACTIVE_CALLS.ordinal()] = current.activeRPCCalls;
+
+		// the publisher may skip a beat, keep the tiers in step with wall time
+		for (long i = 0; i < Math.min(seconds, Window.DAY.resolution); i++) {
+			for (Tier t : tiers) {
+				t.add(sample);
+			}
+		}
+	}
+
+	private static float rate (long current, long previous, double secs) {
+		return current < previous ? 0 : (float) ((current - previous) / secs);
+	}
+
+	private static int index (Metric metric, int method) {
+		return metric.perMethod() ? 3 + (metric.ordinal() - Metric.REQUESTS.ordinal()) * METHODS + method : metric.ordinal();
+	}
+
+	/**
+	 * @param method only used for per-method metrics, null sums up all methods
+	 * @return the samples of the window, oldest first, at most
+	 *         {@link Window#capacity} long
+	 */
+	public synchronized float[] get (Metric metric, Method method, Window window) {
+		Tier t = tiers[window.ordinal()];
+		float[] result = new float[t.size];
+		int start = (t.head - t.size + window.capacity) % window.capacity;
+		for (int i = 0; i < t.size; i++) {
+			int slot = (start + i) % window.capacity;
+			if (metric.perMethod() && method == null) {
+				float sum = 0;
+				for (int m = 0; m < METHODS; m++) {
+					sum += t.values[index(metric, m)][slot];
+				}
+				result[i] = sum;
+			} else {
+				result[i] = t.values[index(metric, method == null ? 0 : method.ordinal())][slot];
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,234 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import lbms.plugins.mldht.azureus.AnnounceLatencyStats;
+import lbms.plugins.mldht.kad.messages.MessageBase.Method;
+
+/**
+ * Renders a {@link StatsSnapshot} as JSON or in the Prometheus text
+ * exposition format.
+ */
+public class StatsFormatter {
+
+	private static final String	PREFIX	= "mldht_";
+
+	public static String toJSON (StatsSnapshot snapshot) {
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("{\"time\":").append(snapshot.time).append(",\"dhts\":{");
+		boolean first = true;
+		for (DHTStatsSnapshot d : snapshot.dhts.values()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			sb.append('"').append(d.type.shortName).append("\":{");
+			sb.append("\"running\":").append(d.running);
+			field(sb, "routingTablePeers", d.numPeers);
+			field(sb, "estimatedPopulation", d.estimatedPopulation);
+			field(sb, "activeTasks", d.activeTasks);
+			field(sb, "queuedTasks", d.queuedTasks);
+			field(sb, "storedKeys", d.storedKeys);
+			field(sb, "storedItems", d.storedItems);
+			field(sb, "activeRPCCalls", d.activeRPCCalls);
+			field(sb, "sentPackets", d.sentPackets);
+			field(sb, "receivedPackets", d.receivedPackets);
+			field(sb, "sentPacketsPerSec", d.sentPacketsPerSec);
+			field(sb, "receivedPacketsPerSec", d.receivedPacketsPerSec);
+			field(sb, "sentBytes", d.sentBytes);
+			field(sb, "receivedBytes", d.receivedBytes);
+			field(sb, "sentBytesPerSec", d.sentBytesPerSec);
+			field(sb, "receivedBytesPerSec", d.receivedBytesPerSec);
+			sb.append(",\"methods\":{");
+			Method[] methods = Method.values();
+			for (int i = 0; i < methods.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append('"').append(methods[i]).append("\":{\"sentRequests\":").append(d.sentRequests[i]);
+				field(sb, "sentResponses", d.sentResponses[i]);
+				field(sb, "receivedRequests", d.receivedRequests[i]);
+				field(sb, "receivedResponses", d.receivedResponses[i]);
+				field(sb, "timeouts", d.timeouts[i]);
+				sb.append('}');
+			}
+			sb.append("},\"buckets\":[");
+			for (int i = 0; i < d.buckets.length; i++) {
+				DHTStatsSnapshot.BucketSummary b = d.buckets[i];
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append("{\"prefix\":\"").append(b.prefix).append('"');
+				field(sb, "depth", b.depth);
+				field(sb, "entries", b.entries);
+				field(sb, "goodEntries", b.goodEntries);
+				field(sb, "replacements", b.replacements);
+				sb.append('}');
+			}
+			sb.append("]}");
+		}
+		sb.append('}');
+
+		TrackerStatsSnapshot t = snapshot.tracker;
+		if (t != null) {
+			sb.append(",\"tracker\":{\"running\":").append(t.running);
+			field(sb, "trackedTorrents", t.trackedTorrents);
+			field(sb, "announceQueue", t.announceQueueSize);
+			field(sb, "scrapeQueue", t.scrapeQueueSize);
+			field(sb, "activeAnnounces", t.activeAnnounces);
+			field(sb, "activeScrapes", t.activeScrapes);
+			field(sb, "announcesStarted", t.announcesStarted);
+			field(sb, "scrapesStarted", t.scrapesStarted);
+			field(sb, "timeouts", t.timeouts);
+			sb.append(",\"latencyMicros\":{");
+			AnnounceLatencyStats.Phase[] phases = AnnounceLatencyStats.Phase.values();
+			for (int i = 0; i < phases.length; i++) {
+				if (i > 0) {
+					sb.append(',');
+				}
+				sb.append('"').append(phases[i]).append("\":{\"count\":").append(t.latencyCount[i]);
+				for (int j = 0; j < TrackerStatsSnapshot.PERCENTILES.length; j++) {
+					field(sb, "p" + (int) TrackerStatsSnapshot.PERCENTILES[j], t.latency[i][j]);
+				}
+				sb.append('}');
+			}
+			sb.append("}}");
+		}
+		sb.append('}');
+		return sb.toString();
+	}
+
+	private static void field (StringBuilder sb, String name, long value) {
+		sb.append(",\"").append(name).append("\":").append(value);
+	}
+
+	private static void field (StringBuilder sb, String name, double value) {
+		sb.append(",\"").append(name).append("\":").append(Double.isFinite(value) ? value : 0);
+	}
+
+	public static String toPrometheus (StatsSnapshot snapshot) {
+		StringBuilder sb = new StringBuilder(8192);
+		Collection<DHTStatsSnapshot> dhts = snapshot.dhts.values();
+
+		dhtGauge(sb, dhts, "up", d -> d.running ? 1 : 0);
+		dhtGauge(sb, dhts, "routing_table_peers", d -> d.numPeers);
+		dhtGauge(sb, dhts, "routing_table_buckets", d -> d.buckets.length);
+		dhtGauge(sb, dhts, "estimated_population", d -> d.estimatedPopulation);
+		dhtGauge(sb, dhts, "tasks_active", d -> d.activeTasks);
+		dhtGauge(sb, dhts, "tasks_queued", d -> d.queuedTasks);
+		dhtGauge(sb, dhts, "stored_keys", d -> d.storedKeys);
+		dhtGauge(sb, dhts, "stored_items", d -> d.storedItems);
+		dhtGauge(sb, dhts, "rpc_calls_active", d -> d.activeRPCCalls);
+		dhtCounter(sb, dhts, "sent_packets_total", d -> d.sentPackets);
+		dhtCounter(sb, dhts, "received_packets_total", d -> d.receivedPackets);
+		dhtCounter(sb, dhts, "sent_bytes_total", d -> d.sentBytes);
+		dhtCounter(sb, dhts, "received_bytes_total", d -> d.receivedBytes);
+		methodCounter(sb, dhts, "sent_requests_total", d -> d.sentRequests);
+		methodCounter(sb, dhts, "sent_responses_total", d -> d.sentResponses);
+		methodCounter(sb, dhts, "received_requests_total", d -> d.receivedRequests);
+		methodCounter(sb, dhts, "received_responses_total", d -> d.receivedResponses);
+		methodCounter(sb, dhts, "timeouts_total", d -> d.timeouts);
+
+		TrackerStatsSnapshot t = snapshot.tracker;
+		if (t == null) {
+			return sb.toString();
+		}
+
+		type(sb, "tracker_up", "gauge");
+		sample(sb, "tracker_up", null, t.running ? 1 : 0);
+		type(sb, "tracker_torrents", "gauge");
+		sample(sb, "tracker_torrents", null, t.trackedTorrents);
+		type(sb, "tracker_queue", "gauge");
+		sample(sb, "tracker_queue", "queue=\"announce\"", t.announceQueueSize);
+		sample(sb, "tracker_queue", "queue=\"scrape\"", t.scrapeQueueSize);
+		type(sb, "tracker_active", "gauge");
+		sample(sb, "tracker_active", "kind=\"announce\"", t.activeAnnounces);
+		sample(sb, "tracker_active", "kind=\"scrape\"", t.activeScrapes);
+		type(sb, "tracker_started_total", "counter");
+		sample(sb, "tracker_started_total", "kind=\"announce\"", t.announcesStarted);
+		sample(sb, "tracker_started_total", "kind=\"scrape\"", t.scrapesStarted);
+		type(sb, "tracker_timeouts_total", "counter");
+		sample(sb, "tracker_timeouts_total", null, t.timeouts);
+
+		type(sb, "announce_latency_seconds", "summary");
+		AnnounceLatencyStats.Phase[] phases = AnnounceLatencyStats.Phase.values();
+		for (int i = 0; i < phases.length; i++) {
+			String phase = "phase=\"" + phases[i].name().toLowerCase() + "\"";
+			for (int j = 0; j < TrackerStatsSnapshot.PERCENTILES.length; j++) {
+				sample(sb, "announce_latency_seconds", phase + ",quantile=\"" + TrackerStatsSnapshot.PERCENTILES[j] / 100
+						+ "\"", t.latency[i][j] / 1000000.0);
+			}
+			sample(sb, "announce_latency_seconds_sum", phase, t.latencySum[i] / 1000000.0);
+			sample(sb, "announce_latency_seconds_count", phase, t.latencyCount[i]);
+		}
+		return sb.toString();
+	}
+
+	private static void dhtGauge (StringBuilder sb, Collection<DHTStatsSnapshot> dhts, String name,
+			ToDoubleFunction<DHTStatsSnapshot> value) {
+		type(sb, name, "gauge");
+		for (DHTStatsSnapshot d : dhts) {
+			sample(sb, name, dhtLabel(d), value.applyAsDouble(d));
+		}
+	}
+
+	private static void dhtCounter (StringBuilder sb, Collection<DHTStatsSnapshot> dhts, String name,
+			ToDoubleFunction<DHTStatsSnapshot> value) {
+		type(sb, name, "counter");
+		for (DHTStatsSnapshot d : dhts) {
+			sample(sb, name, dhtLabel(d), value.applyAsDouble(d));
+		}
+	}
+
+	private static void methodCounter (StringBuilder sb, Collection<DHTStatsSnapshot> dhts, String name,
+			Function<DHTStatsSnapshot, long[]> values) {
+		type(sb, name, "counter");
+		Method[] methods = Method.values();
+		for (DHTStatsSnapshot d : dhts) {
+			long[] v = values.apply(d);
+			for (int i = 0; i < methods.length; i++) {
+				sample(sb, name, dhtLabel(d) + ",method=\"" + methods[i].name().toLowerCase() + "\"", v[i]);
+			}
+		}
+	}
+
+	private static String dhtLabel (DHTStatsSnapshot d) {
+		return "dht=\"" + d.type.shortName + "\"";
+	}
+
+	private static void type (StringBuilder sb, String name, String type) {
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample (StringBuilder sb, String name, String labels, double value) {
+		sb.append(PREFIX).append(name);
+		if (labels != null) {
+			sb.append('{').append(labels).append('}');
+		}
+		sb.append(' ');
+		if (value == (long) value) {
+			sb.append((long) value);
+		} else {
+			sb.append(value);
+		}
+		sb.append('\n');
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal HTTP endpoint for headless deployments, serving the latest
+ * {@link StatsSnapshot} as JSON (/stats.json) and in the Prometheus text
+ * format (/metrics).
+ *
+ * Only binds to the loopback address. Responses are rendered at most once per
+ * snapshot, so scrapers polling at a high rate do not cost more than one
+ * rendering per publish interval.
+ */
+public class StatsHttpServer {
+
+	public static final int			DEFAULT_PORT	= 49080;
+
+	private static final String		JSON_TYPE		= "application/json; charset=utf-8";
+	private static final String		METRICS_TYPE	= "text/plain; version=0.0.4; charset=utf-8";
+
+	private final StatsPublisher	publisher;
+	private HttpServer				server;
+	private ExecutorService			executor;
+
+	private volatile Rendered		json;
+	private volatile Rendered		metrics;
+
+	private static final class Rendered {
+		final StatsSnapshot	snapshot;
+		final byte[]		body;
+
+		Rendered (StatsSnapshot snapshot, String body) {
+			this.snapshot = snapshot;
+			this.body = body.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	public StatsHttpServer (StatsPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	public synchronized void start (int port) throws IOException {
+		if (server != null) {
+			return;
+		}
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 4);
+		executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "mlDHT:stats-http");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.createContext("/stats.json", ex -> serve(ex, JSON_TYPE, getJSON()));
+		server.createContext("/metrics", ex -> serve(ex, METRICS_TYPE, getMetrics()));
+		server.start();
+	}
+
+	public synchronized void stop () {
+		if (server != null) {
+			server.stop(0);
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	private byte[] getJSON () {
+		StatsSnapshot current = publisher.getSnapshot();
+		Rendered r = json;
+		if (r == null || r.snapshot != current) {
+			json = r = new Rendered(current, StatsFormatter.toJSON(current));
+		}
+		return r.body;
+	}
+
+	private byte[] getMetrics () {
+		StatsSnapshot current = publisher.getSnapshot();
+		Rendered r = metrics;
+		if (r == null || r.snapshot != current) {
+			metrics = r = new Rendered(current, StatsFormatter.toPrometheus(current));
+		}
+		return r.body;
+	}
+
+	private static void serve (HttpExchange ex, String contentType, byte[] body) throws IOException {
+		try {
+			if (!"GET".equals(ex.getRequestMethod()) && !"HEAD".equals(ex.getRequestMethod())) {
+				ex.sendResponseHeaders(405, -1);
+				return;
+			}
+			ex.getResponseHeaders().set("Content-Type", contentType);
+			ex.getResponseHeaders().set("Cache-Control", "no-cache");
+			if ("HEAD".equals(ex.getRequestMethod())) {
+				ex.sendResponseHeaders(200, -1);
+				return;
+			}
+			ex.sendResponseHeaders(200, body.length);
+			try (OutputStream os = ex.getResponseBody()) {
+				os.write(body);
+			}
+		} finally {
+			ex.close();
+		}
+	}
+}
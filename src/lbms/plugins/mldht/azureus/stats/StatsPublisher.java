@@ -0,0 +1,151 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lbms.plugins.mldht.azureus.MlDHTPlugin;
+import lbms.plugins.mldht.azureus.Tracker;
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+import com.biglybt.core.util.Debug;
+
+/**
+ * Periodically captures immutable snapshots of the DHT and Tracker counters.
+ *
+ * Consumers (JMX, the stats endpoint, views) read the latest snapshot instead
+ * of the live structures, so polling them costs nothing on the DHT side.
+ */
+public class StatsPublisher {
+
+	public static final int			PUBLISH_INTERVAL	= 1000;
+
+	static final String				JMX_DOMAIN			= "com.biglybt.plugin.mldht";
+
+	private final MlDHTPlugin		plugin;
+	private volatile StatsSnapshot	snapshot			= StatsSnapshot.empty();
+	private ScheduledFuture<?>		timer;
+	private boolean					failing;
+	private final List<ObjectName>	registered			= new ArrayList<>();
+	private final EnumMap<DHTtype, RPCHistory>	histories	= new EnumMap<>(DHTtype.class);
+
+	public StatsPublisher (MlDHTPlugin plugin) {
+		this.plugin = plugin;
+		for (DHTtype type : DHTtype.values()) {
+			histories.put(type, new RPCHistory());
+		}
+		publish();
+	}
+
+	public synchronized void start (ScheduledExecutorService executor) {
+		if (timer != null) {
+			return;
+		}
+		timer = executor.scheduleWithFixedDelay(this::publish, PUBLISH_INTERVAL, PUBLISH_INTERVAL, TimeUnit.MILLISECONDS);
+		registerMBeans();
+	}
+
+	public synchronized void stop () {
+		if (timer != null) {
+			timer.cancel(false);
+			timer = null;
+		}
+		unregisterMBeans();
+	}
+
+	/**
+	 * @return the most recent snapshot, never null
+	 */
+	public StatsSnapshot getSnapshot () {
+		return snapshot;
+	}
+
+	/**
+	 * @return the RPC rate history of the DHT type, never null
+	 */
+	public RPCHistory getHistory (DHTtype type) {
+		return histories.get(type);
+	}
+
+	private void publish () {
+		try {
+			StatsSnapshot previous = snapshot;
+			EnumMap<DHTtype, DHTStatsSnapshot> dhts = new EnumMap<>(DHTtype.class);
+			for (DHTtype type : DHTtype.values()) {
+				// rates are computed against the previous capture, the empty placeholder has none
+				DHTStatsSnapshot last = previous.time == 0 ? null : previous.getDHT(type);
+				DHTStatsSnapshot current = DHTStatsSnapshot.capture(plugin.getDHT(type), type, last);
+				dhts.put(type, current);
+				if (last != null) {
+					histories.get(type).add(current, last);
+				}
+			}
+			Tracker tracker = plugin.getTracker();
+			snapshot = new StatsSnapshot(System.currentTimeMillis(), dhts,
+					tracker == null ? null : TrackerStatsSnapshot.capture(tracker));
+			failing = false;
+		} catch (Throwable e) {
+			// keep the previous snapshot, report once per run of failures rather than every second
+			if (!failing) {
+				failing = true;
+				Debug.out(e);
+			}
+		}
+	}
+
+	private void registerMBeans () {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			for (DHTtype type : DHTtype.values()) {
+				register(server, new ObjectName(JMX_DOMAIN + ":type=DHT,name=" + type.shortName), new DHTMetrics(this, type));
+			}
+			register(server, new ObjectName(JMX_DOMAIN + ":type=Tracker"), new TrackerMetrics(this));
+		} catch (Throwable e) {
+			Debug.out(e);
+		}
+	}
+
+	private void register (MBeanServer server, ObjectName name, Object bean) throws Exception {
+		if (server.isRegistered(name)) {
+			// left over from a previous load of the plugin
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(bean, name);
+		registered.add(name);
+	}
+
+	private void unregisterMBeans () {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name : registered) {
+			try {
+				server.unregisterMBean(name);
+			} catch (Throwable e) {
+				// already gone
+			}
+		}
+		registered.clear();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import lbms.plugins.mldht.kad.DHT.DHTtype;
+
+/**
+ * Everything a {@link StatsPublisher} captured in one pass.
+ */
+public final class StatsSnapshot {
+
+	public final long								time;
+	public final Map<DHTtype, DHTStatsSnapshot>		dhts;
+	public final TrackerStatsSnapshot				tracker;
+
+	StatsSnapshot (long time, EnumMap<DHTtype, DHTStatsSnapshot> dhts, TrackerStatsSnapshot tracker) {
+		this.time = time;
+		this.dhts = Collections.unmodifiableMap(dhts);
+		this.tracker = tracker;
+	}
+
+	/**
+	 * @return a snapshot with time 0, all DHTs stopped and no tracker, stands
+	 *         in until the first capture succeeds
+	 */
+	static StatsSnapshot empty () {
+		EnumMap<DHTtype, DHTStatsSnapshot> dhts = new EnumMap<>(DHTtype.class);
+		for (DHTtype type : DHTtype.values()) {
+			dhts.put(type, DHTStatsSnapshot.capture(null, type, null));
+		}
+		return new StatsSnapshot(0, dhts, null);
+	}
+
+	public DHTStatsSnapshot getDHT (DHTtype type) {
+		return dhts.get(type);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import lbms.plugins.mldht.azureus.AnnounceLatencyStats;
+
+class TrackerMetrics implements TrackerMetricsMXBean {
+
+	private final StatsPublisher	publisher;
+
+	TrackerMetrics (StatsPublisher publisher) {
+		this.publisher = publisher;
+	}
+
+	private TrackerStatsSnapshot get () {
+		return publisher.getSnapshot().tracker;
+	}
+
+	@Override
+	public boolean isRunning () {
+		TrackerStatsSnapshot s = get();
+		return s != null && s.running;
+	}
+
+	@Override
+	public long getSnapshotTime () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.time;
+	}
+
+	@Override
+	public int getTrackedTorrents () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.trackedTorrents;
+	}
+
+	@Override
+	public int getAnnounceQueueSize () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.announceQueueSize;
+	}
+
+	@Override
+	public int getScrapeQueueSize () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.scrapeQueueSize;
+	}
+
+	@Override
+	public int getActiveAnnounces () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.activeAnnounces;
+	}
+
+	@Override
+	public int getActiveScrapes () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.activeScrapes;
+	}
+
+	@Override
+	public long getAnnouncesStarted () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.announcesStarted;
+	}
+
+	@Override
+	public long getScrapesStarted () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.scrapesStarted;
+	}
+
+	@Override
+	public long getTimeouts () {
+		TrackerStatsSnapshot s = get();
+		return s == null ? 0 : s.timeouts;
+	}
+
+	@Override
+	public double[] getAnnounceLatencyMillis () {
+		return latency(AnnounceLatencyStats.Phase.TOTAL);
+	}
+
+	@Override
+	public double[] getQueueWaitMillis () {
+		return latency(AnnounceLatencyStats.Phase.QUEUE_WAIT);
+	}
+
+	private double[] latency (AnnounceLatencyStats.Phase phase) {
+		TrackerStatsSnapshot s = get();
+		double[] result = new double[TrackerStatsSnapshot.PERCENTILES.length];
+		if (s != null) {
+			for (int i = 0; i < result.length; i++) {
+				result[i] = s.latency[phase.ordinal()][i] / 1000.0;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+/**
+ * JMX view of the Tracker, all attributes are served from the latest
+ * published snapshot.
+ */
+public interface TrackerMetricsMXBean {
+
+	boolean isRunning ();
+
+	long getSnapshotTime ();
+
+	int getTrackedTorrents ();
+
+	int getAnnounceQueueSize ();
+
+	int getScrapeQueueSize ();
+
+	int getActiveAnnounces ();
+
+	int getActiveScrapes ();
+
+	long getAnnouncesStarted ();
+
+	long getScrapesStarted ();
+
+	long getTimeouts ();
+
+	/**
+	 * @return end-to-end announce time percentiles (p50, p90, p99) in ms
+	 */
+	double[] getAnnounceLatencyMillis ();
+
+	/**
+	 * @return time in queue percentiles (p50, p90, p99) in ms
+	 */
+	double[] getQueueWaitMillis ();
+}
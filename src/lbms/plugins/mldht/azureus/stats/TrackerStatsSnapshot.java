@@ -0,0 +1,80 @@
+/*
+ *    This file is part of mlDHT.
+ *
+ *    mlDHT is free software: you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation, either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    mlDHT is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with mlDHT.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package lbms.plugins.mldht.azureus.stats;
+
+import lbms.plugins.mldht.azureus.AnnounceLatencyStats;
+import lbms.plugins.mldht.azureus.LatencyHistogram;
+import lbms.plugins.mldht.azureus.Tracker;
+
+/**
+ * Immutable copy of the Tracker's scheduling state at a point in time.
+ */
+public final class TrackerStatsSnapshot {
+
+	public static final double[]	PERCENTILES	= { 50, 90, 99 };
+
+	public final long		time;
+	public final boolean	running;
+	public final int		trackedTorrents;
+	public final int		announceQueueSize;
+	public final int		scrapeQueueSize;
+	public final int		activeAnnounces;
+	public final int		activeScrapes;
+	public final long		announcesStarted;
+	public final long		scrapesStarted;
+	public final long		timeouts;
+
+	/**
+	 * [phase][percentile] in microseconds, phases as in
+	 * AnnounceLatencyStats.Phase, percentiles as in {@link #PERCENTILES}
+	 */
+	public final long[][]	latency;
+	/** [phase] */
+	public final long[]		latencyCount;
+	/** [phase] in microseconds */
+	public final long[]		latencySum;
+
+	private TrackerStatsSnapshot (Tracker tracker, long time) {
+		this.time = time;
+		running = tracker.isRunning();
+		trackedTorrents = tracker.getTrackedTorrentCount();
+		announceQueueSize = tracker.getAnnounceQueueSize();
+		scrapeQueueSize = tracker.getScrapeQueueSize();
+		activeAnnounces = tracker.getActiveAnnounceCount();
+		activeScrapes = tracker.getActiveScrapeCount();
+		announcesStarted = tracker.getAnnouncesStarted();
+		scrapesStarted = tracker.getScrapesStarted();
+		timeouts = tracker.getTimeoutCount();
+
+		AnnounceLatencyStats.Phase[] phases = AnnounceLatencyStats.Phase.values();
+		latency = new long[phases.length][PERCENTILES.length];
+		latencyCount = new long[phases.length];
+		latencySum = new long[phases.length];
+		for (AnnounceLatencyStats.Phase p : phases) {
+			LatencyHistogram h = tracker.getLatencyStats().getHistogram(p);
+			latencyCount[p.ordinal()] = h.getCount();
+			latencySum[p.ordinal()] = h.getSum();
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				latency[p.ordinal()][i] = h.getValueAtPercentile(PERCENTILES[i]);
+			}
+		}
+	}
+
+	public static TrackerStatsSnapshot capture (Tracker tracker) {
+		return new TrackerStatsSnapshot(tracker, System.currentTimeMillis());
+	}
+}